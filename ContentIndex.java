@@ -0,0 +1,247 @@
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class represents a second hash index on disk, keyed
+ * by the content of each entry instead of its sequence ID.
+ * Each slot is 24 bytes: the content hash of the entry, the
+ * handle for the sequence ID, and the handle for the entry.
+ * Slots are found with linear probing over the whole file,
+ * and removed slots become grave stones, as in the HashTable.
+ *
+ * This lets us answer which IDs store a given sequence
+ * without decoding anything but the matching entries, and
+ * list IDs by entry length by scanning only this file.
+ */
+public class ContentIndex {
+
+	/**
+	 * File pointer to the index on disk.
+	 */
+	private RandomAccessFile file;
+
+	/**
+	 * Number of slots in the index.  This is twice the size
+	 * of the hash table, so the index is never more than half
+	 * full and probe runs stay short.
+	 */
+	private int size;
+
+	/**
+	 * The ID length stored in a grave stone.  Real IDs always
+	 * have a length of at least one, so an ID length of zero
+	 * marks an empty slot.
+	 */
+	private static final int GRAVE_LENGTH = Integer.MAX_VALUE;
+
+	/**
+	 * Number of slots read at a time when scanning the index.
+	 */
+	private static final int SCAN_SLOTS = 4096;
+
+	/**
+	 * Basic constructor for the ContentIndex class.
+	 * Will initialize all member fields appropriately.
+	 *
+	 * @param fileName - the name of the file for our index
+	 * @param sz - the size of the hash table being indexed
+	 */
+	public ContentIndex(String fileName, int sz) {
+		this(fileName, sz, false);
+	}
+
+	/**
+	 * Constructor for a ContentIndex that may be opened
+	 * read-only on an existing index file, which must have
+	 * been written for a hash table of the same size.
+	 *
+	 * @param fileName - the name of the file for our index
+	 * @param sz - the size of the hash table being indexed
+	 * @param readOnly - true to open an existing file read-only
+	 */
+	public ContentIndex(String fileName, int sz, boolean readOnly) {
+		size = sz * 2;
+		try {
+			if (readOnly) {
+				file = new RandomAccessFile(fileName, "r");
+				if (file.length() != (long) size * 24) {
+					System.err.println("Content index does not match hash-table-size.");
+					System.exit(0);
+				}
+			} else {
+				file = new RandomAccessFile(fileName, "rw");
+				// Make sure we are overwriting file.
+				file.setLength(0);
+				file.setLength((long) size * 24);
+			}
+		} catch (FileNotFoundException e) {
+			System.err.println("Could not find/create file.");
+			System.exit(0);
+		} catch (IOException e) {
+			System.err.println("Could not overwrite file.");
+			System.exit(0);
+		}
+	}
+
+	/**
+	 * Adds an ID to the index under the content hash of its
+	 * entry, at the first empty slot or grave stone from home.
+	 *
+	 * @param digest - the content hash of the entry
+	 * @param IDHandle - the handle for the sequence ID
+	 * @param entryHandle - the handle for the entry
+	 */
+	public void insert(long digest, Handle IDHandle, Handle entryHandle) {
+		long home = home(digest);
+		try {
+			for (int i = 0; i < size; i++) {
+				long idx = (home + i) % size;
+				file.seek(idx * 24 + 12);
+				int idLength = file.readInt();
+				if (idLength == 0 || idLength == GRAVE_LENGTH) {
+					file.seek(idx * 24);
+					file.writeLong(digest);
+					file.writeInt(IDHandle.getOffset());
+					file.writeInt(IDHandle.getLength());
+					file.writeInt(entryHandle.getOffset());
+					file.writeInt(entryHandle.getLength());
+					return;
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(0);
+		}
+	}
+
+	/**
+	 * Removes an ID from the index, leaving a grave stone.
+	 * If the slot after it is empty, no search can need to
+	 * probe past it, so the slot and any grave stones right
+	 * before it are emptied instead.
+	 *
+	 * @param digest - the content hash of the entry
+	 * @param IDHandle - the handle for the sequence ID
+	 */
+	public void remove(long digest, Handle IDHandle) {
+		long home = home(digest);
+		try {
+			for (int i = 0; i < size; i++) {
+				long idx = (home + i) % size;
+				file.seek(idx * 24);
+				long slotDigest = file.readLong();
+				int idOffset = file.readInt();
+				int idLength = file.readInt();
+				if (idLength == 0) {
+					return;
+				}
+				if (slotDigest == digest && idOffset == IDHandle.getOffset()
+						&& idLength == IDHandle.getLength()) {
+					file.seek(((idx + 1) % size) * 24 + 12);
+					if (file.readInt() != 0) {
+						file.seek(idx * 24 + 12);
+						file.writeInt(GRAVE_LENGTH);
+						return;
+					}
+					do {
+						file.seek(idx * 24);
+						file.write(new byte[24]);
+						idx = (idx + size - 1) % size;
+						file.seek(idx * 24 + 12);
+					} while (file.readInt() == GRAVE_LENGTH);
+					return;
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(0);
+		}
+	}
+
+	/**
+	 * Finds every slot whose content hash and entry length
+	 * match the given ones.  Callers still need to compare the
+	 * entries themselves, in case of a hash collision.
+	 *
+	 * @param digest - the content hash to look for
+	 * @param length - the entry length to look for
+	 * @return - the id and entry handles for each match
+	 */
+	public List<Handle[]> find(long digest, int length) {
+		List<Handle[]> matches = new ArrayList<Handle[]>();
+		long home = home(digest);
+		try {
+			for (int i = 0; i < size; i++) {
+				file.seek(((home + i) % size) * 24);
+				long slotDigest = file.readLong();
+				int idOffset = file.readInt();
+				int idLength = file.readInt();
+				int entryOffset = file.readInt();
+				int entryLength = file.readInt();
+				if (idLength == 0) {
+					break;
+				}
+				if (idLength != GRAVE_LENGTH && slotDigest == digest && entryLength == length) {
+					matches.add(new Handle[]{new Handle(idOffset, idLength),
+							new Handle(entryOffset, entryLength)});
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(0);
+		}
+		return matches;
+	}
+
+	/**
+	 * Finds every slot with an entry length in the given
+	 * range, by reading the whole index in large chunks.
+	 * Matches come out in slot order.
+	 *
+	 * @param min - the smallest entry length, inclusive
+	 * @param max - the largest entry length, inclusive
+	 * @return - the id and entry handles for each match
+	 */
+	public List<Handle[]> findLengths(int min, int max) {
+		List<Handle[]> matches = new ArrayList<Handle[]>();
+		byte[] chunk = new byte[SCAN_SLOTS * 24];
+		try {
+			for (long first = 0; first < size; first += SCAN_SLOTS) {
+				int slots = (int) Math.min(SCAN_SLOTS, size - first);
+				file.seek(first * 24);
+				file.readFully(chunk, 0, slots * 24);
+				ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, slots * 24);
+				for (int i = 0; i < slots; i++) {
+					buffer.getLong();
+					int idOffset = buffer.getInt();
+					int idLength = buffer.getInt();
+					int entryOffset = buffer.getInt();
+					int entryLength = buffer.getInt();
+					if (idLength != 0 && idLength != GRAVE_LENGTH
+							&& entryLength >= min && entryLength <= max) {
+						matches.add(new Handle[]{new Handle(idOffset, idLength),
+								new Handle(entryOffset, entryLength)});
+					}
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(0);
+		}
+		return matches;
+	}
+
+	/**
+	 * Returns the home slot for a content hash.
+	 *
+	 * @param digest - the content hash
+	 * @return - the index of the home slot
+	 */
+	private long home(long digest) {
+		return ((digest ^ (digest >>> 32)) & Long.MAX_VALUE) % size;
+	}
+}
@@ -1,13 +1,29 @@
+import java.io.EOFException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Database manager for keeping track of sequence memory
  * and free blocks.  Allows for several interface methods
  * using the Handle class to determine which bytes are
- * sequences.
+ * sequences.  The file is grown in large extents and
+ * trimmed back to the end of the data on close.
+ * 
+ * Identical sequences are only stored once.  Each stored
+ * block is tracked by a hash of its packed bytes, and an
+ * insert of the same bytes shares the existing block and
+ * counts another reference to it.  A block is only freed
+ * when its last reference is removed.
  */
 public class DatabaseManager {
 
@@ -25,6 +41,82 @@ public class DatabaseManager {
 	 */
 	private LinkedList<Handle> free;
 
+	/**
+	 * Logical end of data in the file, in bytes.  Everything
+	 * past this point is reserved space that has not been
+	 * written yet.  The file itself is grown in whole extents
+	 * and its length is kept in capacity, so appends are plain
+	 * writes into space that already exists.
+	 */
+	private int end;
+	private long capacity;
+	private static final int EXTENT = 1 << 20;
+
+	/**
+	 * Number of letters read, and bytes written or compared,
+	 * at a time when streaming a sequence.
+	 */
+	private static final int CHUNK = 8192;
+
+	/**
+	 * Buffers for streaming inserts, made on first use and
+	 * kept for every later one.  Only writers use these, and
+	 * there is only ever one writer.
+	 */
+	private char[] letters;
+	private byte[] packed;
+	private byte[] mine;
+	private byte[] theirs;
+
+	/**
+	 * End of data before the most recent allocate, if it added
+	 * the space to the end of the data, or -1 if it used a free
+	 * block.  Lets release undo that allocate exactly.
+	 */
+	private int appendedFrom = -1;
+
+	/**
+	 * Stored blocks, keyed by byte offset and by content hash.
+	 * Only blocks with at least one reference are kept here.
+	 */
+	private Map<Integer, Block> blocks;
+	private Map<Long, List<Block>> contents;
+
+	/**
+	 * True if the file was opened read-only.  A read-only
+	 * manager never writes or trims the file.
+	 */
+	private boolean readOnly;
+
+	/**
+	 * Optional cache of stored sequences, so that hot IDs and
+	 * entries are not read back from the file on every lookup.
+	 * It is null unless a cache budget was given.
+	 */
+	private SequenceCache cache;
+
+	/**
+	 * Per-thread buffer for comparing stored sequences against
+	 * a query, grown as needed, so that lookups on several
+	 * threads neither allocate nor share a buffer.
+	 */
+	private static final ThreadLocal<byte[]> COMPARE_BUFFER = new ThreadLocal<byte[]>() {
+		protected byte[] initialValue() {
+			return new byte[64];
+		}
+	};
+
+	/**
+	 * A stored block of sequence bytes that may be shared by
+	 * several handles, with its content hash and the number of
+	 * handles referring to it.
+	 */
+	private static class Block {
+		Handle handle;
+		long digest;
+		int references;
+	}
+
 	/**
 	 * Basic constructor for the DatabaseManager class.
 	 * Will initialize all member fields appropriately.
@@ -32,10 +124,45 @@ public class DatabaseManager {
 	 * @param fileName - the name of the file for our database
 	 */
 	public DatabaseManager(String fileName) {
+		this(fileName, false);
+	}
+
+	/**
+	 * Constructor for a DatabaseManager that may be opened
+	 * read-only on an existing memory file.  Only lookups may
+	 * be made on a read-only manager, and these may be made from
+	 * several threads at once.
+	 * 
+	 * @param fileName - the name of the file for our database
+	 * @param readOnly - true to open an existing file read-only
+	 */
+	public DatabaseManager(String fileName, boolean readOnly) {
+		this(fileName, readOnly, 0);
+	}
+
+	/**
+	 * Constructor for a DatabaseManager with a cache of stored
+	 * sequences.  Cached sequences are dropped whenever their
+	 * block is freed or another block is written in its place.
+	 * 
+	 * @param fileName - the name of the file for our database
+	 * @param readOnly - true to open an existing file read-only
+	 * @param cacheBytes - the budget for the cache in bytes, or 0 for none
+	 */
+	public DatabaseManager(String fileName, boolean readOnly, long cacheBytes) {
+		this.readOnly = readOnly;
+		if (cacheBytes > 0) {
+			cache = new SequenceCache(cacheBytes);
+		}
 		try {
-			file = new RandomAccessFile(fileName, "rw");
-			// Make sure we are overwriting file.
-			file.setLength(0);
+			if (readOnly) {
+				file = new RandomAccessFile(fileName, "r");
+			} else {
+				file = new RandomAccessFile(fileName, "rw");
+				// Make sure we are overwriting file.
+				file.setLength(0);
+			}
+			capacity = file.length();
 		} catch (FileNotFoundException e) {
 			System.err.println("Could not find/create file.");
 			System.exit(0);
@@ -45,13 +172,18 @@ public class DatabaseManager {
 		}
 		
 		free = new LinkedList<Handle>();
+		end = (int) capacity;
+		blocks = new HashMap<Integer, Block>();
+		contents = new HashMap<Long, List<Block>>();
 	}
 
 	/**
 	 * Method to insert a given sequence into the first
 	 * free memory block.  If there are no free memory
 	 * blocks of sufficient size, will create a new one
-	 * and add it to the end of the file.
+	 * and add it to the end of the file.  If the same
+	 * sequence is already stored, its block is shared
+	 * instead and nothing is written.
 	 * 
 	 * @param sequence - the sequence to insert
 	 * @param length - the length of the given sequence
@@ -59,77 +191,447 @@ public class DatabaseManager {
 	 */
 	public Handle insert(String sequence, int length) {
 		// Calculate number of bytes needed to store this sequence
-		int bytesNeeded = (int) Math.ceil((double)(length / 4.0));
+		int bytesNeeded = (length + 3) / 4;
+		byte[] packed = buildByteArray(sequence, bytesNeeded);
+		
+		try {
+			Handle shared = share(packed, length);
+			if (shared != null) {
+				return shared;
+			}
+			int offset = allocate(bytesNeeded);
+			file.seek(offset);
+			file.write(packed);
+			Handle handle = new Handle(offset, length);
+			track(handle, packed);
+			return handle;
+		} catch (IOException e) {
+			System.err.println("Problem writing to file. See stack trace for details.");
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Method to insert a sequence read from a stream, for
+	 * sequences too long to hold as a String.  Space for the
+	 * declared length is allocated up front, then the letters
+	 * are packed and written a chunk at a time, so only one
+	 * chunk is ever held in memory.  Leading whitespace is
+	 * skipped, and the sequence ends at the declared length or
+	 * at the first whitespace after it starts.  Missing letters
+	 * are stored as A, as with insert.
+	 * 
+	 * The content hash is worked out while writing.  If the same
+	 * sequence is already stored, its block is shared instead and
+	 * the allocation is released, leaving the free list as it was.
+	 * As that costs a write and a read back, short sequences are
+	 * better inserted as Strings.
+	 * 
+	 * @param in - the stream to read letters from
+	 * @param length - the declared length of the sequence
+	 * @return - the Handle for the given sequence
+	 */
+	public Handle insert(Reader in, int length) {
+		int bytesNeeded = (length + 3) / 4;
+		if (letters == null) {
+			letters = new char[CHUNK];
+			packed = new byte[CHUNK / 4];
+		}
 		
+		try {
+			int offset = allocate(bytesNeeded);
+			Handle handle = new Handle(offset, length);
+			long hash = 0xcbf29ce484222325L ^ length;
+			int read = 0, next = 0;
+			boolean started = false, ended = false;
+			for (int done = 0; done < length; ) {
+				// Pack the next chunk, padding with A past the end
+				int count = Math.min(CHUNK, length - done);
+				Arrays.fill(packed, (byte) 0);
+				for (int i = 0; i < count; i++) {
+					char c = 'A';
+					while (!ended) {
+						if (next == read) {
+							read = in.read(letters);
+							next = 0;
+							if (read < 0) {
+								read = 0;
+								ended = true;
+								break;
+							}
+							continue;
+						}
+						char letter = letters[next++];
+						if (letter > ' ') {
+							started = true;
+							c = letter;
+							break;
+						}
+						if (started) {
+							ended = true;
+						}
+					}
+					packed[i / 4] |= (getCharValue(c) & 0b11) << (6 - 2 * (i % 4));
+				}
+				
+				int bytes = (count + 3) / 4;
+				for (int i = 0; i < bytes; i++) {
+					hash ^= packed[i] & 0xFF;
+					hash *= 0x100000001b3L;
+				}
+				file.seek(offset + done / 4);
+				file.write(packed, 0, bytes);
+				done += count;
+			}
+			
+			Handle shared = share(handle, hash);
+			if (shared != null) {
+				release(offset, bytesNeeded);
+				return shared;
+			}
+			track(handle, hash);
+			return handle;
+		} catch (IOException e) {
+			System.err.println("Problem writing to file. See stack trace for details.");
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Method to insert a batch of sequences into one
+	 * contiguous region of memory, written with a single
+	 * write.  The region is taken from the first free block
+	 * large enough for the whole batch, or else added to the
+	 * end of the file.  Sequences that are already stored, or
+	 * repeated within the batch, share a single block.
+	 * 
+	 * @param sequences - the sequences to insert
+	 * @param lengths - the length of each sequence
+	 * @return - the Handle for each sequence, in the same order
+	 */
+	public Handle[] insertAll(String[] sequences, int[] lengths) {
+		Handle[] handles = new Handle[sequences.length];
+		byte[][] packed = new byte[sequences.length][];
+		int[] positions = new int[sequences.length];
+		int[] copyOf = new int[sequences.length];
+		Map<Long, List<Integer>> fresh = new HashMap<Long, List<Integer>>();
+		int total = 0;
+		
+		try {
+			// Work out which sequences need new space
+			for (int i = 0; i < sequences.length; i++) {
+				packed[i] = buildByteArray(sequences[i], (lengths[i] + 3) / 4);
+				copyOf[i] = -1;
+				handles[i] = share(packed[i], lengths[i]);
+				if (handles[i] != null) {
+					continue;
+				}
+				
+				long digest = digest(packed[i], lengths[i]);
+				List<Integer> same = fresh.get(digest);
+				if (same == null) {
+					same = new ArrayList<Integer>();
+					fresh.put(digest, same);
+				}
+				for (int j : same) {
+					if (lengths[j] == lengths[i] && Arrays.equals(packed[j], packed[i])) {
+						copyOf[i] = j;
+						break;
+					}
+				}
+				if (copyOf[i] < 0) {
+					same.add(i);
+					positions[i] = total;
+					total += packed[i].length;
+				}
+			}
+			if (total == 0) {
+				return handles;
+			}
+			
+			// Pack every new sequence into one buffer
+			byte[] region = new byte[total];
+			for (int i = 0; i < sequences.length; i++) {
+				if (handles[i] == null && copyOf[i] < 0) {
+					System.arraycopy(packed[i], 0, region, positions[i], packed[i].length);
+				}
+			}
+			
+			int offset = allocate(total);
+			file.seek(offset);
+			file.write(region);
+			for (int i = 0; i < sequences.length; i++) {
+				if (handles[i] != null) {
+					continue;
+				}
+				if (copyOf[i] < 0) {
+					handles[i] = new Handle(offset + positions[i], lengths[i]);
+					track(handles[i], packed[i]);
+				} else {
+					handles[i] = handles[copyOf[i]];
+					blocks.get(handles[i].getOffset()).references++;
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("Problem writing to file. See stack trace for details.");
+			e.printStackTrace();
+			return null;
+		}
+		return handles;
+	}
+
+	/**
+	 * Looks for a stored block with exactly the given bytes
+	 * and length.  Blocks with a matching hash are read back and
+	 * compared, so a hash collision can never share the wrong
+	 * block.  If one is found, it gains a reference.
+	 * 
+	 * @param packed - the packed bytes of the sequence
+	 * @param length - the length of the sequence
+	 * @return - a Handle to the shared block, or null if none
+	 * @throws IOException - if a block cannot be read back
+	 */
+	private Handle share(byte[] packed, int length) throws IOException {
+		List<Block> same = contents.get(digest(packed, length));
+		if (same == null) {
+			return null;
+		}
+		byte[] stored = new byte[packed.length];
+		for (Block block : same) {
+			if (block.handle.getLength() != length) {
+				continue;
+			}
+			file.seek(block.handle.getOffset());
+			file.readFully(stored);
+			if (Arrays.equals(stored, packed)) {
+				block.references++;
+				return block.handle;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Looks for another stored block with the same bytes as
+	 * a block already in the file, comparing the two a chunk at
+	 * a time.  If one is found, it gains a reference.
+	 * 
+	 * @param handle - the Handle for the block just written
+	 * @param digest - the content hash of that block
+	 * @return - a Handle to the shared block, or null if none
+	 * @throws IOException - if a block cannot be read back
+	 */
+	private Handle share(Handle handle, long digest) throws IOException {
+		List<Block> same = contents.get(digest);
+		if (same == null) {
+			return null;
+		}
+		if (mine == null) {
+			mine = new byte[CHUNK];
+			theirs = new byte[CHUNK];
+		}
+		for (Block block : same) {
+			if (block.handle.getLength() != handle.getLength()) {
+				continue;
+			}
+			boolean equal = true;
+			for (int done = 0; equal && done < handle.getBytes(); done += CHUNK) {
+				int count = Math.min(CHUNK, handle.getBytes() - done);
+				file.seek(handle.getOffset() + done);
+				file.readFully(mine, 0, count);
+				file.seek(block.handle.getOffset() + done);
+				file.readFully(theirs, 0, count);
+				if (done + count == handle.getBytes() && (handle.getLength() & 3) != 0) {
+					int mask = (0xFF << (8 - 2 * (handle.getLength() & 3))) & 0xFF;
+					mine[count - 1] &= mask;
+					theirs[count - 1] &= mask;
+				}
+				equal = ByteBuffer.wrap(mine, 0, count).equals(ByteBuffer.wrap(theirs, 0, count));
+			}
+			if (equal) {
+				block.references++;
+				return block.handle;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Starts tracking a newly written block, with a single
+	 * reference, so that later inserts can share it.
+	 * 
+	 * @param handle - the Handle for the new block
+	 * @param packed - the packed bytes written to the block
+	 */
+	private void track(Handle handle, byte[] packed) {
+		track(handle, digest(packed, handle.getLength()));
+	}
+
+	/**
+	 * Starts tracking a newly written block with a known
+	 * content hash, with a single reference.
+	 * 
+	 * @param handle - the Handle for the new block
+	 * @param digest - the content hash of the block
+	 */
+	private void track(Handle handle, long digest) {
+		if (cache != null) {
+			cache.invalidate(handle.getOffset());
+		}
+		Block block = new Block();
+		block.handle = handle;
+		block.digest = digest;
+		block.references = 1;
+		blocks.put(handle.getOffset(), block);
+		
+		List<Block> same = contents.get(block.digest);
+		if (same == null) {
+			same = new ArrayList<Block>();
+			contents.put(block.digest, same);
+		}
+		same.add(block);
+	}
+
+	/**
+	 * Computes the content hash of a packed sequence, used
+	 * to find identical blocks.
+	 * 
+	 * @param packed - the packed bytes of the sequence
+	 * @param length - the length of the sequence
+	 * @return - the content hash
+	 */
+	private long digest(byte[] packed, int length) {
+		return new Sequence(packed, length).digest();
+	}
+
+	/**
+	 * Returns the content hash of a stored sequence, as
+	 * computed when it was inserted.  Equal sequences always
+	 * have equal hashes, so this can key indexes on content.
+	 * 
+	 * @param handle - the given Handle for the sequence
+	 * @return - the content hash of the sequence
+	 */
+	public long getDigest(Handle handle) {
+		Block block = blocks.get(handle.getOffset());
+		if (block != null) {
+			return block.digest;
+		}
+		return getSequence(handle).digest();
+	}
+
+	/**
+	 * Finds room for the given number of bytes.  Uses the
+	 * first free memory block of sufficient size, or if there
+	 * is none, adds the space to the end of the data.
+	 * 
+	 * @param bytesNeeded - the number of bytes to allocate
+	 * @return - the byte offset of the allocated space
+	 * @throws IOException - if the file cannot be grown
+	 */
+	private int allocate(int bytesNeeded) throws IOException {
 		// Check for any free blocks with sufficient size
 		for (Handle freeBlock: free) {
 			int offset = freeBlock.getOffset();
 			if (freeBlock.getBytes() >= bytesNeeded) {
-				// Attempt to write to the free block
-				try {
-					file.seek(offset);
-					file.write(buildByteArray(sequence, bytesNeeded));
-				} catch (IOException e) {
-					System.err.println("Problem writing to file. See stack trace for details.");
-					e.printStackTrace();
-					return null;
-				}
-				
 				// Clean up list of free blocks
 				if (freeBlock.getBytes() == bytesNeeded) {
 					free.remove(freeBlock);
 				}
 				else {
-					free.set(free.indexOf(freeBlock), new Handle(offset + bytesNeeded, freeBlock.getBytes() - bytesNeeded));
+					free.set(free.indexOf(freeBlock), new Handle(offset + bytesNeeded, (freeBlock.getBytes() - bytesNeeded) * 4));
 				}
-				return new Handle(offset, length);
+				appendedFrom = -1;
+				return offset;
 			}
 		}
 		
-		// No valid free space so append to end of file
-		int oldLength = -1;
-		try {
-			oldLength = (int) file.length();
-			Handle fb = freeBlockAtEnd();
-			if (fb != null) {
-				// If free block at end, extend length to only amount we need and remove free block
-				file.setLength(fb.getOffset() + bytesNeeded);
-				file.seek(fb.getOffset());
-				free.remove(fb);
-			}
-			else {
-				file.setLength(oldLength + bytesNeeded);
-				file.seek(oldLength);
+		// No valid free space so append to end of data
+		int offset = end;
+		Handle fb = freeBlockAtEnd();
+		if (fb != null) {
+			// If free block at end, start writing there and remove free block
+			offset = fb.getOffset();
+			free.remove(fb);
+		}
+		reserve(offset + bytesNeeded);
+		appendedFrom = end;
+		end = offset + bytesNeeded;
+		return offset;
+	}
+
+	/**
+	 * Gives back the space from the most recent allocate,
+	 * which must not have been written as a block yet.  Space
+	 * taken from a free block goes back to the free list, and
+	 * space added to the end of the data is dropped again, so
+	 * the free list and end are just as they were before.
+	 * 
+	 * @param offset - the byte offset returned by allocate
+	 * @param bytes - the number of bytes allocated
+	 */
+	private void release(int offset, int bytes) {
+		if (appendedFrom < 0) {
+			addFree(new Handle(offset, bytes * 4));
+		} else {
+			// Restore any free block at the end that was taken
+			end = appendedFrom;
+			if (end > offset) {
+				addFree(new Handle(offset, (end - offset) * 4));
 			}
-			file.write(buildByteArray(sequence, bytesNeeded));
-		} catch (IOException e) {
-			System.err.println("Problem writing to file. See stack trace for details.");
-			e.printStackTrace();
 		}
-		
-		return new Handle(oldLength, length);
+		appendedFrom = -1;
+	}
+
+	/**
+	 * Makes sure the file has room for data up to the given
+	 * byte position.  If not, the file is grown by whole extents
+	 * so that the next several appends need no resizing.
+	 * 
+	 * @param needed - the byte position that must fit in the file
+	 * @throws IOException - if the file cannot be grown
+	 */
+	private void reserve(long needed) throws IOException {
+		if (needed > capacity) {
+			capacity = (needed + EXTENT - 1) / EXTENT * EXTENT;
+			file.setLength(capacity);
+		}
 	}
 
 	/**
-	 * Determines if there is a free block of memory at the end of the file.
+	 * Determines if there is a free block of memory at the end of the data.
 	 * 
-	 * @return - the Handle object of the free block at the end of the file,
+	 * @return - the Handle object of the free block at the end of the data,
 	 *           or null if none
 	 */
 	private Handle freeBlockAtEnd() {
 		for (Handle h: free) {
-			try {
-				if (file.length() - h.getBytes() == h.getOffset()) {
-					return h;
-				}
-			} catch (IOException e) {
-				System.err.println("Could not find file length.");
-				e.printStackTrace();
+			if (end - h.getBytes() == h.getOffset()) {
+				return h;
 			}
 		}
 		return null;
 	}
 
+	/**
+	 * Trims the file back to the logical end of data, dropping
+	 * any reserved space, and closes it.  Should be called once
+	 * all commands have run.
+	 */
+	public void close() {
+		try {
+			if (!readOnly) {
+				file.setLength(end);
+			}
+			file.close();
+		} catch (IOException e) {
+			System.err.println("Could not trim file.");
+			e.printStackTrace();
+		}
+	}
+
 	/**
 	 * Builds a byte array of the given sequence represented in binary.
 	 * 
@@ -192,11 +694,38 @@ public class DatabaseManager {
 	/**
 	 * Method to remove a sequence from the database.
 	 * Creates a new free memory block in the place of
-	 * the removed sequence.
+	 * the removed sequence, unless other handles still
+	 * share the same block.
 	 * 
 	 * @param handle - the given Handle for the sequence
 	 */
 	public void remove(Handle handle) {
+		// Only free the block once its last reference is gone
+		Block block = blocks.get(handle.getOffset());
+		if (block != null) {
+			if (--block.references > 0) {
+				return;
+			}
+			blocks.remove(handle.getOffset());
+			List<Block> same = contents.get(block.digest);
+			same.remove(block);
+			if (same.isEmpty()) {
+				contents.remove(block.digest);
+			}
+		}
+		if (cache != null) {
+			cache.invalidate(handle.getOffset());
+		}
+		addFree(handle);
+	}
+
+	/**
+	 * Adds a block to the list of free memory blocks, in
+	 * order of offset, and merges it with its neighbours.
+	 * 
+	 * @param handle - the Handle for the free block
+	 */
+	private void addFree(Handle handle) {
 		// Check to see where our handle should go
 		// in the list to maintain order
 		for (Handle h : free) {
@@ -233,63 +762,127 @@ public class DatabaseManager {
 
 	/**
 	 * Method to retrieve a DNA sequence using a given
-	 * handle.  Will give the bytes in memory regardless
-	 * of whether or not they have meaning (i.e. has no
-	 * error checking).
+	 * handle.  Only the packed bytes are read; letters are
+	 * decoded on demand by the returned Sequence.  With a cache,
+	 * recently used sequences are returned without any read.  Will give
+	 * the bytes in memory regardless of whether or not they
+	 * have meaning (i.e. has no error checking).
 	 * 
 	 * @param handle - the given Handle for the sequence
-	 * @return - the sequence in the memory location
+	 * @return - a view of the sequence in the memory location
 	 */
-	public String getEntry(Handle handle) {
-		// Fetch the bytes from the file
+	public Sequence getSequence(Handle handle) {
+		if (cache != null) {
+			Sequence cached = cache.get(handle);
+			if (cached != null) {
+				return cached;
+			}
+		}
 		byte[] bytes = new byte[handle.getBytes()];
+		read(handle, bytes);
+		Sequence sequence = new Sequence(bytes, handle.getLength());
+		if (cache != null) {
+			cache.put(handle, sequence);
+		}
+		return sequence;
+	}
+
+	/**
+	 * Compares the sequence stored for a given handle against
+	 * a packed query, without decoding either one.  The bytes are
+	 * read into a per-thread buffer, so this is safe to call from
+	 * several threads and allocates nothing once warmed up.
+	 * With a cache, the stored sequence goes through the cache
+	 * instead, so IDs probed again and again are read only once.
+	 * 
+	 * @param handle - the given Handle for the stored sequence
+	 * @param packed - the packed query to compare against
+	 * @return - true if the letters are the same, false otherwise
+	 */
+	public boolean matches(Handle handle, Sequence packed) {
+		if (handle.getLength() != packed.length()) {
+			return false;
+		}
+		if (cache != null) {
+			return getSequence(handle).contentEquals(packed);
+		}
+		byte[] bytes = COMPARE_BUFFER.get();
+		if (bytes.length < handle.getBytes()) {
+			bytes = new byte[Math.max(handle.getBytes(), bytes.length * 2)];
+			COMPARE_BUFFER.set(bytes);
+		}
+		read(handle, bytes);
+		return new Sequence(bytes, handle.getLength()).contentEquals(packed);
+	}
+
+	/**
+	 * Fetches the packed bytes for a handle into the front of
+	 * the given array with positional reads, so that scans and
+	 * lookups may call this from several threads.
+	 * 
+	 * @param handle - the given Handle for the sequence
+	 * @param bytes - the array to fill, at least handle.getBytes() long
+	 */
+	private void read(Handle handle, byte[] bytes) {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, handle.getBytes());
 		try {
-			file.seek(handle.getOffset());
-			file.read(bytes);
+			FileChannel channel = file.getChannel();
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, handle.getOffset() + buffer.position()) < 0) {
+					throw new EOFException();
+				}
+			}
 		} catch (IOException e) {
 			System.err.println("Cannot read byte sequence for given handle.");
 			e.printStackTrace();
 		}
-		
-		// Convert the bytes to a string sequence
-		String output = "";
-		for (byte b : bytes) {
-			output += getStrFromBin(b);
-		}
-		//TODO: Read below
-		/*
-		 * The issue here is that the given handle only has the number of bytes
-		 * needed to store the sequence, not the actual sequence length. Thus,
-		 * we don't know how many letters to actually interpret since 4 letters
-		 * fit in a byte. So we need to come up with a way to pass the sequence
-		 * length in this method.
-		 */
-		return output.substring(0, handle.getLength());
 	}
 
 	/**
-	 * Returns the binary representation for the given character.
+	 * Method to retrieve a DNA sequence using a given
+	 * handle, decoded to a String.  Prefer getSequence
+	 * for long sequences, as this decodes every letter.
 	 * 
-	 * @param c - the character to convert to binary
-	 * @return - the binary value of the given character
+	 * @param handle - the given Handle for the sequence
+	 * @return - the sequence in the memory location
 	 */
-	private String getStrFromBin(byte b) {
-		// Get out each 2-bit value
-		int[] charsInByte = {(b & 0xC0) >> 6, (b & 0x30) >> 4, (b & 0x0C) >> 2, (b & 0x03)};
-		
-		// Convert bit-pairs to respective characters
-		String output = "";
-		for (int c: charsInByte) {
-			if (c == 0)
-				output += "A";
-			else if (c == 1)
-				output += "C";
-			else if (c == 2)
-				output += "G";
-			else if (c == 3)
-				output += "T";
+	public String getEntry(Handle handle) {
+		return getSequence(handle).toString();
+	}
+
+	/**
+	 * Method to produce a histogram of the free memory
+	 * blocks, grouped by size in powers of two.
+	 * 
+	 * @return - the free space statistics
+	 */
+	public String statistics() {
+		int[] counts = new int[32];
+		long total = 0;
+		for (Handle handle : free) {
+			int bytes = handle.getBytes();
+			counts[31 - Integer.numberOfLeadingZeros(Math.max(bytes, 1))]++;
+			total += bytes;
 		}
 		
+		String output = "Free Space Statistics:";
+		if (readOnly) {
+			output += "\nFree blocks not reported for a read-only store, end of data: "
+					+ end + " byte(s)";
+		} else {
+			output += "\nFree: " + total + " byte(s) in " + free.size() + " block(s), end of data: "
+					+ end + " byte(s)";
+		}
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] > 0) {
+				long low = 1L << i, high = (1L << (i + 1)) - 1;
+				output += "\n" + (low == high ? "" + low : low + "-" + high) + " byte(s): "
+						+ counts[i] + " block(s)";
+			}
+		}
+		if (cache != null) {
+			output += "\n" + cache;
+		}
 		return output;
 	}
 
@@ -300,6 +893,11 @@ public class DatabaseManager {
 	 * @return - all elements of the linked list free
 	 */
 	public String toString() {
+		// The free list is not saved, so it is unknown when read-only
+		if (readOnly) {
+			return "Free Blocks:\nNot reported for a read-only store.";
+		}
+		
 		// Check if there are any free blocks
 		if (free.size() <= 0) {
 			return "Free Blocks:\nNone";
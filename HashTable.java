@@ -2,6 +2,12 @@ import java.io.EOFException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * This class represents a hash table compatible with
@@ -13,6 +19,14 @@ import java.io.RandomAccessFile;
  * the spec on scholar, is used to determine the index
  * in the hash table.
  * 
+ * Collisions are resolved by linear probing that wraps
+ * around inside the bucket.  Optionally, the table can use
+ * Robin Hood probing instead, which keeps each slot's
+ * distance from home and lets a failed search stop early.
+ * With linear probing, removed slots become grave stones,
+ * which are reclaimed by rehashing a bucket once it has
+ * collected enough of them.
+ * 
  * @author Chris Schweinhart (schwein)
  * @author Nate Kibler (nkibler7)
  */
@@ -47,8 +61,45 @@ public class HashTable {
 	/**
 	 * JAVA DOC
 	 */
-	private static final Handle ZERO_HANDLE = new Handle(0, 0);
-	private static final Handle GRAVE_HANDLE = new Handle(Integer.MAX_VALUE, Integer.MAX_VALUE);
+	static final Handle ZERO_HANDLE = new Handle(0, 0);
+	static final Handle GRAVE_HANDLE = new Handle(Integer.MAX_VALUE, Integer.MAX_VALUE);
+	
+	/**
+	 * Shift for the probe distance kept in the top byte of the
+	 * ID length of each slot when using Robin Hood probing.  ID
+	 * lengths are far below 2^24 letters, so the low bits are left
+	 * for the length itself.
+	 */
+	private static final int DISTANCE_SHIFT = 24;
+	private static final int LENGTH_MASK = (1 << DISTANCE_SHIFT) - 1;
+	
+	/**
+	 * Maximum probe distance for Robin Hood probing, or 0 if
+	 * the table uses plain linear probing.  With Robin Hood
+	 * probing, each slot records how far it is from its home
+	 * slot, and an insert that would push any entry further than
+	 * this bound fails instead, the same as a full bucket.
+	 */
+	private int maxProbe;
+	
+	/**
+	 * Number of grave stones in each bucket.  Once a bucket has
+	 * GRAVE_THRESHOLD of them, it is rehashed in place so that
+	 * searches no longer have to probe past dead slots.
+	 */
+	private int[] graves;
+	private static final int GRAVE_THRESHOLD = 8;
+	
+	/**
+	 * Per-thread buffer for reading a bucket.  Reads use
+	 * positional channel reads into this buffer, so searches
+	 * on different threads never share a file pointer or buffer.
+	 */
+	private static final ThreadLocal<ByteBuffer> BUCKET_BUFFER = new ThreadLocal<ByteBuffer>() {
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocate(512);
+		}
+	};
 	
 	/**
 	 * Basic constructor for the HashTable class.
@@ -59,11 +110,54 @@ public class HashTable {
 	 * @param manager - the database manager for our entries
 	 */
 	public HashTable(String fileName, int sz, DatabaseManager manager) {
+		this(fileName, sz, manager, 0);
+	}
+	
+	/**
+	 * Constructor for a HashTable that may use Robin Hood
+	 * probing inside each bucket instead of plain linear probing.
+	 * 
+	 * @param fileName - the name of the file for our hash table
+	 * @param sz - the size of our hash table, multiple of 32
+	 * @param manager - the database manager for our entries
+	 * @param robinHood - the maximum probe distance, from 1 to 32,
+	 *                    or 0 for plain linear probing
+	 */
+	public HashTable(String fileName, int sz, DatabaseManager manager, int robinHood) {
+		this(fileName, sz, manager, robinHood, false);
+	}
+	
+	/**
+	 * Constructor for a HashTable that may be opened read-only
+	 * on an existing hash file.  A read-only table is never
+	 * written, so any number of threads may search it at once;
+	 * every read is a positional read with a per-thread buffer.
+	 * The table must be opened with the same size and probing
+	 * as when it was written.  The probing is saved next to the
+	 * hash file, in <hash-file>.probe, and checked on opening.
+	 * 
+	 * @param fileName - the name of the file for our hash table
+	 * @param sz - the size of our hash table, multiple of 32
+	 * @param manager - the database manager for our entries
+	 * @param robinHood - the maximum probe distance, from 1 to 32,
+	 *                    or 0 for plain linear probing
+	 * @param readOnly - true to open an existing file read-only
+	 */
+	public HashTable(String fileName, int sz, DatabaseManager manager, int robinHood,
+			boolean readOnly) {
 		try {
-			file = new RandomAccessFile(fileName, "rw");
-			// Make sure we are overwriting file.
-			file.setLength(0);
-			file.setLength(sz * 16);
+			if (readOnly) {
+				file = new RandomAccessFile(fileName, "r");
+				if (file.length() != sz * 16L) {
+					System.err.println("Hash file does not match hash-table-size.");
+					System.exit(0);
+				}
+			} else {
+				file = new RandomAccessFile(fileName, "rw");
+				// Make sure we are overwriting file.
+				file.setLength(0);
+				file.setLength(sz * 16);
+			}
 		} catch (FileNotFoundException e) {
 			System.err.println("Could not find/create file.");
 			System.exit(0);
@@ -74,6 +168,43 @@ public class HashTable {
 		
 		size = sz;
 		dbm = manager;
+		maxProbe = Math.min(robinHood, 32);
+		graves = new int[sz / 32];
+		probing(fileName + ".probe", readOnly);
+	}
+	
+	/**
+	 * Saves the maximum probe distance of a new table, or
+	 * checks that a table opened read-only uses the one it was
+	 * written with.  Robin Hood tables keep the probe distance in
+	 * the top byte of each ID length, so opening a table with the
+	 * wrong probing would silently misread every slot.
+	 * 
+	 * @param fileName - the name of the file for the probing
+	 * @param readOnly - true to check it, false to save it
+	 */
+	private void probing(String fileName, boolean readOnly) {
+		try {
+			RandomAccessFile probe = new RandomAccessFile(fileName, readOnly ? "r" : "rw");
+			if (readOnly) {
+				int saved = probe.readInt();
+				if (saved != maxProbe) {
+					System.err.println(saved == 0 ? "Hash file was written without -robinhood."
+							: "Hash file was written with -robinhood=" + saved + ".");
+					System.exit(0);
+				}
+			} else {
+				probe.setLength(0);
+				probe.writeInt(maxProbe);
+			}
+			probe.close();
+		} catch (FileNotFoundException e) {
+			System.err.println(readOnly ? "Could not find probing for hash file." : "Could not find/create file.");
+			System.exit(0);
+		} catch (IOException e) {
+			System.err.println("Could not read/write probing for hash file.");
+			System.exit(0);
+		}
 	}
 	
 	/**
@@ -90,6 +221,9 @@ public class HashTable {
 	 * @return - true if successful, false otherwise
 	 */
 	public boolean insert(String sequenceID, Handle IDHandle, Handle entryHandle) {
+		if (maxProbe > 0) {
+			return robinHoodInsert(sequenceID, IDHandle, entryHandle);
+		}
 		long idx = sfold(sequenceID, size);
 		for (int i = 0; i < 32; i++) {
 			Handle[] handles = getHandles(sequenceID, i);
@@ -99,6 +233,9 @@ public class HashTable {
 				if (i >= 32 - (idx % 32)) {
 					writePos -= 32;
 				}
+				if (handles[0].equals(GRAVE_HANDLE)) {
+					graves[(int) (idx / 32)]--;
+				}
 				try {
 					file.seek(writePos * 16);
 					file.writeInt(IDHandle.getOffset());
@@ -160,18 +297,23 @@ public class HashTable {
 	 * Removes both the ID and entry handles for the given
 	 * sequence ID.  Uses the offset to determine the
 	 * linear probing offset for sequential searching.
-	 * Sets the table locations to be a grave stone.
+	 * Sets the table locations to be a grave stone, and
+	 * rehashes the bucket if it now has too many of them.
 	 * 
 	 * @param sequenceID - the sequence ID to remove
-	 * @param offset - the linear probing offset
 	 */
 	public void remove(String sequenceID) {
+		if (maxProbe > 0) {
+			robinHoodRemove(sequenceID);
+			return;
+		}
+		Sequence packed = Sequence.valueOf(sequenceID);
 		for (int i = 0; i < 32; i++) {
 			Handle[] handles = getHandles(sequenceID, i);
 			if (handles != null && !handles[0].equals(ZERO_HANDLE)
-				&& !handles[0].equals(GRAVE_HANDLE)) {
-				String id = dbm.getEntry(handles[0]);
-				if (id.equals(sequenceID)) {
+				&& !handles[0].equals(GRAVE_HANDLE)
+				&& handles[0].getLength() == sequenceID.length()) {
+				if (dbm.getSequence(handles[0]).contentEquals(packed)) {
 					long sfold = sfold(sequenceID, size);
 					long idx = sfold + i;
 					if (i >= 32 - (sfold % 32)) {
@@ -185,44 +327,199 @@ public class HashTable {
 						e.printStackTrace();
 						System.exit(-1);
 					}
+					if (++graves[(int) (idx / 32)] >= GRAVE_THRESHOLD) {
+						rehashBucket(idx);
+					}
 				}
 			}
 		}
 	}
 	
+	/**
+	 * Rehashes every bucket that has any grave stones, so
+	 * that all dead slots are reclaimed.  This is the explicit
+	 * maintenance version of the automatic rehash done by
+	 * remove.  Tables using Robin Hood probing never have grave
+	 * stones, so this does nothing for them.
+	 * 
+	 * @return - the number of grave stones reclaimed
+	 */
+	public int reclaim() {
+		int reclaimed = 0;
+		for (int b = 0; b < graves.length; b++) {
+			if (graves[b] > 0) {
+				reclaimed += rehashBucket(b * 32L);
+			}
+		}
+		return reclaimed;
+	}
+	
+	/**
+	 * Rehashes a single bucket in place, dropping its grave
+	 * stones.  Every live entry is put back at the first empty
+	 * slot from its home, so it is still found by a search that
+	 * stops at the first empty slot.
+	 * 
+	 * @param idx - the index of any slot in the bucket
+	 * @return - the number of grave stones reclaimed
+	 */
+	private int rehashBucket(long idx) {
+		int[] bucket = readBucket(idx);
+		int[] rebuilt = new int[128];
+		int reclaimed = 0;
+		for (int slot = 0; slot < 32; slot++) {
+			Handle idHandle = new Handle(bucket[slot * 4], bucket[slot * 4 + 1]);
+			if (idHandle.equals(GRAVE_HANDLE)) {
+				reclaimed++;
+				continue;
+			}
+			if (idHandle.equals(ZERO_HANDLE)) {
+				continue;
+			}
+			
+			// Place the entry at the first empty slot from home
+			String sequenceID = dbm.getEntry(idHandle);
+			int home = (int) (sfold(sequenceID, size) % 32);
+			for (int i = 0; i < 32; i++) {
+				int target = (home + i) % 32;
+				if (rebuilt[target * 4] == 0 && rebuilt[target * 4 + 1] == 0) {
+					System.arraycopy(bucket, slot * 4, rebuilt, target * 4, 4);
+					break;
+				}
+			}
+		}
+		writeBucket(idx, rebuilt);
+		graves[(int) (idx / 32)] = 0;
+		return reclaimed;
+	}
+	
 	/**
 	 * Method to produce a string representation of all
 	 * hash table entries.  Each entry will have the slot
 	 * in the hash table as well as the handle for the
-	 * sequence ID.
+	 * sequence ID.  The table is scanned in parallel by
+	 * TableScan, which keeps the entries in slot order.
 	 * 
 	 * @return - all elements stored in hash table
 	 */
 	public String toString() {
-		String output = "SequenceIDs:\n";
-		int idOff, idLength, entryOff, entryLength;
-		Handle[] handles;
-		
-		for (int i = 0; i < size; i++) {
-			try {
-			    file.seek(i * 16);
-				idOff = file.readInt();
-				idLength = file.readInt();
-				entryOff = file.readInt();
-				entryLength = file.readInt();
-				handles = new Handle[]{new Handle(idOff, idLength), 
-						new Handle(entryOff, entryLength)};
-				if (!handles[0].equals(ZERO_HANDLE) && !handles[0].equals(GRAVE_HANDLE)) {
-					String sequenceID = dbm.getEntry(handles[0]);
-					output += sequenceID + ": hash slot [" + i + "]\n";
-				}
-			} catch (IOException e) {
-				e.printStackTrace();
-				System.exit(0);
+		return "SequenceIDs:\n" + TableScan.scan(this, dbm, true).ids;
+	}
+	
+	/**
+	 * Method to produce a report on how full the table is.
+	 * Gives the live slots and grave stones in each bucket that
+	 * has any, and how many live slots and buckets fall at each
+	 * probe length and grave stone count.
+	 * 
+	 * @return - the statistics for the hash table
+	 */
+	public String statistics() {
+		TableScan.Result result = TableScan.scan(this, dbm, false);
+		long live = 0, dead = 0;
+		int[] graveCounts = new int[33];
+		StringBuilder buckets = new StringBuilder();
+		for (int b = 0; b < result.live.length; b++) {
+			live += result.live[b];
+			dead += result.graves[b];
+			graveCounts[result.graves[b]]++;
+			if (result.live[b] > 0 || result.graves[b] > 0) {
+				buckets.append("\n[Bucket ").append(b).append("] ").append(result.live[b])
+						.append(" live, ").append(result.graves[b]).append(" grave stone(s)");
 			}
 		}
 		
-		return output.substring(0, output.length());
+		// Built with a StringBuilder, as there is a line per bucket
+		StringBuilder output = new StringBuilder("Hash Table Statistics:");
+		output.append("\nSlots: ").append(size).append(", live: ").append(live)
+				.append(", grave stones: ").append(dead)
+				.append(String.format(", load factor: %.2f", (double) live / size));
+		output.append("\nBucket occupancy:").append(buckets.length() > 0 ? buckets : "\nNone");
+		output.append("\nProbe lengths:");
+		for (int i = 0; i < result.probes.length; i++) {
+			if (result.probes[i] > 0) {
+				output.append("\n").append(i).append(": ").append(result.probes[i]).append(" slot(s)");
+			}
+		}
+		output.append("\nGrave stones per bucket:");
+		for (int i = 0; i < graveCounts.length; i++) {
+			if (graveCounts[i] > 0) {
+				output.append("\n").append(i).append(": ").append(graveCounts[i]).append(" bucket(s)");
+			}
+		}
+		return output.toString();
+	}
+	
+	/**
+	 * Method to retrieve the number of slots in the table.
+	 * 
+	 * @return - the size of the hash table
+	 */
+	int getSize() {
+		return size;
+	}
+	
+	/**
+	 * Reads a run of slots with a single positional read.
+	 * Positional reads do not move the file pointer, so any
+	 * number of threads may call this at once.
+	 * 
+	 * @param first - the index of the first slot
+	 * @param count - the number of slots to read
+	 * @return - four integers per slot, as stored on disk
+	 */
+	int[] readSlots(long first, int count) {
+		ByteBuffer buffer = ByteBuffer.allocate(count * 16);
+		read(buffer, first * 16);
+		int[] slots = new int[count * 4];
+		buffer.asIntBuffer().get(slots);
+		return slots;
+	}
+	
+	/**
+	 * Returns the ID handle stored in a slot read by
+	 * readSlots, without any probe distance bits.
+	 * 
+	 * @param slots - the slots read by readSlots
+	 * @param i - the index of the slot within them
+	 * @return - the ID handle, which may be ZERO_HANDLE or GRAVE_HANDLE
+	 */
+	Handle getIDHandle(int[] slots, int i) {
+		int idLength = slots[i * 4 + 1];
+		if (maxProbe > 0 && idLength != Integer.MAX_VALUE) {
+			idLength &= LENGTH_MASK;
+		}
+		return new Handle(slots[i * 4], idLength);
+	}
+	
+	/**
+	 * Returns the entry handle stored in a slot read by
+	 * readSlots.
+	 * 
+	 * @param slots - the slots read by readSlots
+	 * @param i - the index of the slot within them
+	 * @return - the entry handle
+	 */
+	Handle getEntryHandle(int[] slots, int i) {
+		return new Handle(slots[i * 4 + 2], slots[i * 4 + 3]);
+	}
+	
+	/**
+	 * Returns how far a live slot is from its home slot.
+	 * With Robin Hood probing this is stored in the slot.
+	 * Otherwise the sequence ID is read back and hashed.
+	 * 
+	 * @param slots - the slots read by readSlots
+	 * @param i - the index of the slot within them
+	 * @param slot - the index of the slot in the table
+	 * @return - the probe length, from 0 to 31
+	 */
+	int getProbeLength(int[] slots, int i, long slot) {
+		if (maxProbe > 0) {
+			return slots[i * 4 + 1] >>> DISTANCE_SHIFT;
+		}
+		String sequenceID = dbm.getEntry(getIDHandle(slots, i));
+		return (int) ((slot - sfold(sequenceID, size) + 32) % 32);
 	}
 	
 	/**
@@ -236,22 +533,368 @@ public class HashTable {
 	 * @return - both the id and entry handles
 	 */
 	public Handle[] search(String sequenceID) {
+		int[] bucket = readBucket(sfold(sequenceID, size));
+		int slot = findSlot(sequenceID, bucket);
+		if (slot < 0) {
+			return null;
+		}
+		return getHandles(bucket, slot);
+	}
+	
+	/**
+	 * Searches a bucket in memory for the given sequence ID,
+	 * in Robin Hood or linear probing order as the table uses.
+	 * 
+	 * @param sequenceID - the sequence ID to search for
+	 * @param bucket - the 128 integers of the bucket
+	 * @return - the slot within the bucket, or -1 if not found
+	 */
+	private int findSlot(String sequenceID, int[] bucket) {
+		return maxProbe > 0 ? robinHoodFind(sequenceID, bucket) : linearFind(sequenceID, bucket);
+	}
+	
+	/**
+	 * Returns both handles stored in a slot of a bucket in
+	 * memory, without any probe distance bits.
+	 * 
+	 * @param bucket - the 128 integers of the bucket
+	 * @param slot - the slot within the bucket
+	 * @return - both the id and entry handles
+	 */
+	private Handle[] getHandles(int[] bucket, int slot) {
+		return new Handle[]{getIDHandle(bucket, slot), getEntryHandle(bucket, slot)};
+	}
+	
+	/**
+	 * Reads the whole bucket holding the given slot, as four
+	 * integers per slot in the same order they are stored on
+	 * disk.  Searches, Robin Hood probing and batches work on
+	 * the bucket in memory, so they need one read and at most
+	 * one write per bucket.  This is safe to call from several
+	 * threads at once.
+	 * 
+	 * @param idx - the index of any slot in the bucket
+	 * @return - the 128 integers of the bucket
+	 */
+	private int[] readBucket(long idx) {
+		ByteBuffer buffer = BUCKET_BUFFER.get();
+		buffer.clear();
+		read(buffer, (idx - idx % 32) * 16);
+		int[] bucket = new int[128];
+		buffer.asIntBuffer().get(bucket);
+		return bucket;
+	}
+	
+	/**
+	 * Fills the given buffer from the hash file with positional
+	 * reads, which do not move the file pointer, then flips it.
+	 * 
+	 * @param buffer - the buffer to fill
+	 * @param position - the byte position to read from
+	 */
+	private void read(ByteBuffer buffer, long position) {
+		try {
+			FileChannel channel = file.getChannel();
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, position + buffer.position()) < 0) {
+					break;
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(0);
+		}
+		buffer.flip();
+	}
+	
+	/**
+	 * Writes the whole bucket holding the given slot back to
+	 * the hash file.
+	 * 
+	 * @param idx - the index of any slot in the bucket
+	 * @param bucket - the 128 integers of the bucket
+	 */
+	private void writeBucket(long idx, int[] bucket) {
+		ByteBuffer bytes = ByteBuffer.allocate(512);
+		bytes.asIntBuffer().put(bucket);
+		try {
+			file.seek((idx - idx % 32) * 16);
+			file.write(bytes.array());
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(0);
+		}
+	}
+	
+	/**
+	 * Searches a bucket in Robin Hood order for the given
+	 * sequence ID.  The search stops early at an empty slot, or
+	 * at a slot closer to its home than we are to ours, since
+	 * the ID would have displaced that slot if it were stored.
+	 * 
+	 * @param sequenceID - the sequence ID to search for
+	 * @param bucket - the 128 integers of the bucket
+	 * @return - the slot within the bucket, or -1 if not found
+	 */
+	private int robinHoodFind(String sequenceID, int[] bucket) {
+		int home = (int) (sfold(sequenceID, size) % 32);
+		Sequence packed = null;
+		for (int d = 0; d < maxProbe; d++) {
+			int slot = (home + d) % 32;
+			int idLength = bucket[slot * 4 + 1];
+			if (bucket[slot * 4] == 0 && idLength == 0) {
+				return -1;
+			}
+			if (idLength >>> DISTANCE_SHIFT < d) {
+				return -1;
+			}
+			if ((idLength & LENGTH_MASK) == sequenceID.length()) {
+				if (packed == null) {
+					packed = Sequence.valueOf(sequenceID);
+				}
+				Handle idHandle = new Handle(bucket[slot * 4], idLength & LENGTH_MASK);
+				if (dbm.matches(idHandle, packed)) {
+					return slot;
+				}
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Inserts with Robin Hood probing, reading and writing
+	 * the bucket around robinHoodPlace.
+	 * 
+	 * @param sequenceID - the sequence ID to insert
+	 * @param IDHandle - the associated handle for the ID
+	 * @param entryHandle - the associated handle for the entry
+	 * @return - true if successful, false otherwise
+	 */
+	private boolean robinHoodInsert(String sequenceID, Handle IDHandle, Handle entryHandle) {
+		long idx = sfold(sequenceID, size);
+		int[] bucket = readBucket(idx);
+		if (!robinHoodPlace(idx, bucket, IDHandle, entryHandle)) {
+			return false;
+		}
+		writeBucket(idx, bucket);
+		return true;
+	}
+	
+	/**
+	 * Places an entry in a bucket in memory with Robin Hood
+	 * probing.  Walking from the home slot, the new entry takes
+	 * the place of any entry closer to its own home, and that
+	 * entry carries on in its place.  If anything would be pushed
+	 * past the maximum probe distance, the bucket is left as it was.
+	 * 
+	 * @param idx - the home slot of the entry
+	 * @param bucket - the 128 integers of the bucket
+	 * @param IDHandle - the associated handle for the ID
+	 * @param entryHandle - the associated handle for the entry
+	 * @return - true if successful, false otherwise
+	 */
+	private boolean robinHoodPlace(long idx, int[] bucket, Handle IDHandle, Handle entryHandle) {
+		int[] work = bucket.clone();
+		int[] carry = {IDHandle.getOffset(), IDHandle.getLength(),
+				entryHandle.getOffset(), entryHandle.getLength()};
+		int distance = 0;
+		int slot = (int) (idx % 32);
+		
+		while (distance < maxProbe) {
+			int idLength = work[slot * 4 + 1];
+			if (work[slot * 4] == 0 && idLength == 0) {
+				carry[1] |= distance << DISTANCE_SHIFT;
+				System.arraycopy(carry, 0, work, slot * 4, 4);
+				System.arraycopy(work, 0, bucket, 0, 128);
+				return true;
+			}
+			
+			// Swap with an entry that is closer to its home
+			int existing = idLength >>> DISTANCE_SHIFT;
+			if (existing < distance) {
+				int[] displaced = new int[4];
+				System.arraycopy(work, slot * 4, displaced, 0, 4);
+				carry[1] |= distance << DISTANCE_SHIFT;
+				System.arraycopy(carry, 0, work, slot * 4, 4);
+				carry = displaced;
+				carry[1] &= LENGTH_MASK;
+				distance = existing;
+			}
+			slot = (slot + 1) % 32;
+			distance++;
+		}
+		return false;
+	}
+	
+	/**
+	 * Searches a bucket in linear probing order for the given
+	 * sequence ID, skipping grave stones and stopping at the
+	 * first empty slot.
+	 * 
+	 * @param sequenceID - the sequence ID to search for
+	 * @param bucket - the 128 integers of the bucket
+	 * @return - the slot within the bucket, or -1 if not found
+	 */
+	private int linearFind(String sequenceID, int[] bucket) {
+		int home = (int) (sfold(sequenceID, size) % 32);
+		Sequence packed = null;
 		for (int i = 0; i < 32; i++) {
-			Handle[] handles = getHandles(sequenceID, i);
-			if (handles[0].equals(GRAVE_HANDLE)) {
+			int slot = (home + i) % 32;
+			Handle idHandle = new Handle(bucket[slot * 4], bucket[slot * 4 + 1]);
+			if (idHandle.equals(GRAVE_HANDLE)) {
 				continue;
 			}
-			if (handles[0].equals(ZERO_HANDLE)) {
+			if (idHandle.equals(ZERO_HANDLE)) {
 				break;
 			}
-			if (handles != null) {
-				String id = dbm.getEntry(handles[0]);
-				if (id.equals(sequenceID)) {
-					return handles;
+			if (idHandle.getLength() == sequenceID.length()) {
+				if (packed == null) {
+					packed = Sequence.valueOf(sequenceID);
+				}
+				if (dbm.matches(idHandle, packed)) {
+					return slot;
 				}
 			}
 		}
-		return null;
+		return -1;
+	}
+	
+	/**
+	 * Places an entry in a bucket in memory with linear
+	 * probing, at the first empty slot or grave stone from home.
+	 * 
+	 * @param idx - the home slot of the entry
+	 * @param bucket - the 128 integers of the bucket
+	 * @param IDHandle - the associated handle for the ID
+	 * @param entryHandle - the associated handle for the entry
+	 * @return - true if successful, false otherwise
+	 */
+	private boolean linearPlace(long idx, int[] bucket, Handle IDHandle, Handle entryHandle) {
+		int home = (int) (idx % 32);
+		for (int i = 0; i < 32; i++) {
+			int slot = (home + i) % 32;
+			Handle idHandle = new Handle(bucket[slot * 4], bucket[slot * 4 + 1]);
+			if (idHandle.equals(ZERO_HANDLE) || idHandle.equals(GRAVE_HANDLE)) {
+				if (idHandle.equals(GRAVE_HANDLE)) {
+					graves[(int) (idx / 32)]--;
+				}
+				bucket[slot * 4] = IDHandle.getOffset();
+				bucket[slot * 4 + 1] = IDHandle.getLength();
+				bucket[slot * 4 + 2] = entryHandle.getOffset();
+				bucket[slot * 4 + 3] = entryHandle.getLength();
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Groups the given sequence IDs by the bucket they hash
+	 * to.  Buckets come out in file order, and the IDs within a
+	 * bucket keep the order they were given in.
+	 * 
+	 * @param sequenceIDs - the sequence IDs to group
+	 * @return - the indices of the IDs, keyed by bucket
+	 */
+	private Map<Long, List<Integer>> groupByBucket(String[] sequenceIDs) {
+		Map<Long, List<Integer>> groups = new TreeMap<Long, List<Integer>>();
+		for (int i = 0; i < sequenceIDs.length; i++) {
+			long bucket = sfold(sequenceIDs[i], size) / 32;
+			List<Integer> group = groups.get(bucket);
+			if (group == null) {
+				group = new ArrayList<Integer>();
+				groups.put(bucket, group);
+			}
+			group.add(i);
+		}
+		return groups;
+	}
+	
+	/**
+	 * Searches for a whole batch of sequence IDs at once.
+	 * The IDs are grouped by bucket, so each bucket is read
+	 * from disk only once no matter how many IDs hash to it.
+	 * 
+	 * @param sequenceIDs - the sequence IDs to search for
+	 * @return - the id and entry handles for each ID, in the
+	 *           same order, with null for IDs not found
+	 */
+	public Handle[][] searchAll(String[] sequenceIDs) {
+		Handle[][] results = new Handle[sequenceIDs.length][];
+		for (Map.Entry<Long, List<Integer>> group : groupByBucket(sequenceIDs).entrySet()) {
+			int[] bucket = readBucket(group.getKey() * 32);
+			for (int i : group.getValue()) {
+				int slot = findSlot(sequenceIDs[i], bucket);
+				if (slot >= 0) {
+					results[i] = getHandles(bucket, slot);
+				}
+			}
+		}
+		return results;
+	}
+	
+	/**
+	 * Inserts a whole batch of sequence IDs at once.  The IDs
+	 * are grouped by bucket, and each bucket is read once and
+	 * written back once.  Within a bucket, entries are placed in
+	 * the order given, so the results match inserting them one
+	 * at a time.
+	 * 
+	 * @param sequenceIDs - the sequence IDs to insert
+	 * @param IDHandles - the associated handles for the IDs
+	 * @param entryHandles - the associated handles for the entries
+	 * @return - for each ID, true if successful, false otherwise
+	 */
+	public boolean[] insertAll(String[] sequenceIDs, Handle[] IDHandles, Handle[] entryHandles) {
+		boolean[] results = new boolean[sequenceIDs.length];
+		for (Map.Entry<Long, List<Integer>> group : groupByBucket(sequenceIDs).entrySet()) {
+			int[] bucket = readBucket(group.getKey() * 32);
+			boolean changed = false;
+			for (int i : group.getValue()) {
+				long idx = sfold(sequenceIDs[i], size);
+				results[i] = maxProbe > 0
+						? robinHoodPlace(idx, bucket, IDHandles[i], entryHandles[i])
+						: linearPlace(idx, bucket, IDHandles[i], entryHandles[i]);
+				changed |= results[i];
+			}
+			if (changed) {
+				writeBucket(group.getKey() * 32, bucket);
+			}
+		}
+		return results;
+	}
+	
+	/**
+	 * Removes with Robin Hood probing.  Instead of leaving a
+	 * grave stone, the entries after the removed slot are
+	 * shifted back by one until we reach an empty slot or an
+	 * entry already in its home slot.
+	 * 
+	 * @param sequenceID - the sequence ID to remove
+	 */
+	private void robinHoodRemove(String sequenceID) {
+		long idx = sfold(sequenceID, size);
+		int[] bucket = readBucket(idx);
+		int slot = robinHoodFind(sequenceID, bucket);
+		if (slot < 0) {
+			return;
+		}
+		
+		for (int i = 0; i < 31; i++) {
+			int next = (slot + 1) % 32;
+			int idLength = bucket[next * 4 + 1];
+			if ((bucket[next * 4] == 0 && idLength == 0)
+					|| idLength >>> DISTANCE_SHIFT == 0) {
+				break;
+			}
+			System.arraycopy(bucket, next * 4, bucket, slot * 4, 4);
+			bucket[slot * 4 + 1] -= 1 << DISTANCE_SHIFT;
+			slot = next;
+		}
+		for (int j = 0; j < 4; j++) {
+			bucket[slot * 4 + j] = 0;
+		}
+		writeBucket(idx, bucket);
 	}
 	
 	/**
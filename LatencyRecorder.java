@@ -0,0 +1,101 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class records per-command latencies for a replayed
+ * command file.  Each command type (insert, remove, print,
+ * search) keeps its own list of samples in nanoseconds, so
+ * that percentiles can be computed once the run is over.
+ */
+public class LatencyRecorder {
+
+	/**
+	 * Samples for each command type, in the order the command
+	 * types were first seen.  Each array is grown by doubling,
+	 * and the matching entry in counts holds the number of
+	 * samples actually used.
+	 */
+	private Map<String, long[]> samples;
+	private Map<String, Integer> counts;
+
+	/**
+	 * Basic constructor for the LatencyRecorder class.
+	 * Will initialize all member fields appropriately.
+	 */
+	public LatencyRecorder() {
+		samples = new LinkedHashMap<String, long[]>();
+		counts = new LinkedHashMap<String, Integer>();
+	}
+
+	/**
+	 * Records a single latency sample for the given command.
+	 *
+	 * @param command - the command type, such as "insert"
+	 * @param nanos - the time taken by the command in nanoseconds
+	 */
+	public void record(String command, long nanos) {
+		long[] array = samples.get(command);
+		int count = counts.containsKey(command) ? counts.get(command) : 0;
+		if (array == null) {
+			array = new long[1024];
+		} else if (count == array.length) {
+			array = Arrays.copyOf(array, array.length * 2);
+		}
+		array[count] = nanos;
+		samples.put(command, array);
+		counts.put(command, count + 1);
+	}
+
+	/**
+	 * Method to retrieve the total number of samples recorded
+	 * across all command types.
+	 *
+	 * @return - the number of recorded commands
+	 */
+	public long getTotal() {
+		long total = 0;
+		for (int count : counts.values()) {
+			total += count;
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the sample at the given percentile from a
+	 * sorted array, using the nearest-rank method.
+	 *
+	 * @param sorted - the sorted samples
+	 * @param count - the number of samples in use
+	 * @param percentile - the percentile, from 0 to 100
+	 * @return - the sample at that percentile
+	 */
+	private long percentile(long[] sorted, int count, double percentile) {
+		int rank = (int) Math.ceil(percentile / 100.0 * count);
+		return sorted[Math.max(0, Math.min(count - 1, rank - 1))];
+	}
+
+	/**
+	 * Method to produce a string representation of the
+	 * recorded latencies.  Each command type gets one line
+	 * with its count and its p50, p90, p99 and max latency
+	 * in microseconds.
+	 *
+	 * @return - the latency report
+	 */
+	public String toString() {
+		String output = "Latency (us):";
+		for (String command : samples.keySet()) {
+			int count = counts.get(command);
+			long[] sorted = Arrays.copyOf(samples.get(command), count);
+			Arrays.sort(sorted);
+			output += String.format("%n%-8s count=%d p50=%.1f p90=%.1f p99=%.1f max=%.1f",
+					command, count,
+					percentile(sorted, count, 50) / 1000.0,
+					percentile(sorted, count, 90) / 1000.0,
+					percentile(sorted, count, 99) / 1000.0,
+					sorted[count - 1] / 1000.0);
+		}
+		return output;
+	}
+}
@@ -0,0 +1,139 @@
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class is a parallel scan for entries within a given
+ * number of mismatches of a query.  Like TableScan, the buckets
+ * of the hash file are split in half again and again, and each
+ * piece is run by a fork-join worker on the shared pool.  Each
+ * worker reads its slots with one positional read, then reads
+ * the packed entries of the same length as the query straight
+ * from the memory file and compares them a word at a time with
+ * Sequence.mismatches, so nothing is ever decoded to letters.
+ * Results are merged left to right, so they come out in slot
+ * order.
+ */
+public class MismatchScan extends RecursiveTask<MismatchScan.Result> {
+
+	/**
+	 * Version for serialization, which tasks inherit.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Largest number of buckets scanned by a single task
+	 * before it is split in two.
+	 */
+	private static final int LEAF_BUCKETS = 64;
+
+	/**
+	 * The table being scanned, and the database manager
+	 * holding its IDs and entries.
+	 */
+	private HashTable table;
+	private DatabaseManager dbm;
+
+	/**
+	 * The packed query, and the most mismatches allowed.
+	 */
+	private Sequence query;
+	private int limit;
+
+	/**
+	 * The range of buckets for this task, from first up to
+	 * but not including last.
+	 */
+	private int first;
+	private int last;
+
+	/**
+	 * Results for one range of buckets.
+	 */
+	public static class Result {
+
+		/**
+		 * Lines of the form "ID: n mismatch(es)", in slot order.
+		 */
+		StringBuilder ids = new StringBuilder();
+
+		/**
+		 * Number of entries found within the limit.
+		 */
+		int count;
+	}
+
+	/**
+	 * Constructor for a task over a range of buckets.
+	 *
+	 * @param tbl - the table being scanned
+	 * @param manager - the database manager holding the entries
+	 * @param packed - the packed query
+	 * @param k - the most mismatches allowed
+	 * @param from - the first bucket, inclusive
+	 * @param to - the last bucket, exclusive
+	 */
+	private MismatchScan(HashTable tbl, DatabaseManager manager, Sequence packed, int k,
+			int from, int to) {
+		table = tbl;
+		dbm = manager;
+		query = packed;
+		limit = k;
+		first = from;
+		last = to;
+	}
+
+	/**
+	 * Scans the whole table in parallel for entries within
+	 * k mismatches of the query.
+	 *
+	 * @param table - the table to scan
+	 * @param dbm - the database manager holding the entries
+	 * @param query - the packed query
+	 * @param k - the most mismatches allowed
+	 * @return - the merged results for every bucket
+	 */
+	public static Result scan(HashTable table, DatabaseManager dbm, Sequence query, int k) {
+		return TableScan.POOL.invoke(new MismatchScan(table, dbm, query, k,
+				0, table.getSize() / 32));
+	}
+
+	/**
+	 * Scans this task's buckets, splitting the range in two
+	 * if it is too large and merging the halves in order.
+	 *
+	 * @return - the results for this range
+	 */
+	protected Result compute() {
+		if (last - first > LEAF_BUCKETS) {
+			int middle = (first + last) >>> 1;
+			MismatchScan left = new MismatchScan(table, dbm, query, limit, first, middle);
+			left.fork();
+			Result right = new MismatchScan(table, dbm, query, limit, middle, last).compute();
+			Result result = left.join();
+
+			result.ids.append(right.ids);
+			result.count += right.count;
+			return result;
+		}
+
+		Result result = new Result();
+		int[] slots = table.readSlots(first * 32L, (last - first) * 32);
+		for (int i = 0; i < (last - first) * 32; i++) {
+			Handle idHandle = table.getIDHandle(slots, i);
+			if (idHandle.equals(HashTable.ZERO_HANDLE) || idHandle.equals(HashTable.GRAVE_HANDLE)) {
+				continue;
+			}
+			Handle entryHandle = table.getEntryHandle(slots, i);
+			if (entryHandle.getLength() != query.length()) {
+				continue;
+			}
+
+			int mismatches = dbm.getSequence(entryHandle).mismatches(query, limit);
+			if (mismatches <= limit) {
+				result.ids.append(dbm.getSequence(idHandle)).append(": ")
+						.append(mismatches).append(" mismatch(es)\n");
+				result.count++;
+			}
+		}
+		return result;
+	}
+}
@@ -1,7 +1,18 @@
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 // On my honor:
 //
@@ -53,6 +64,11 @@ public class P4 {
 	private static final String REMOVE_PATTERN = "^ *(remove|REMOVE) *[ACGT]+ *$";
 	private static final String PRINT_PATTERN = "^ *(print|PRINT) *$";
 	private static final String SEARCH_PATTERN = "^ *(search|SEARCH) *[ACGT]+ *$";
+	private static final String COMPACT_PATTERN = "^ *(compact|COMPACT) *$";
+	private static final String MATCH_PATTERN = "^ *(match|MATCH) *[ACGT]+ *$";
+	private static final String STATS_PATTERN = "^ *(stats|STATS) *$";
+	private static final String RANGE_PATTERN = "^ *(range|RANGE) *[0-9]+ +[0-9]+ *$";
+	private static final String APPROX_PATTERN = "^ *(approx|APPROX) *[ACGT]+ +[0-9]+ *$";
 	
 	/**
 	 * Member field for HashTable table.  This table represents the
@@ -71,6 +87,174 @@ public class P4 {
 	 */
 	private static DatabaseManager dbm;
 	
+	/**
+	 * Member field for the ContentIndex, which maps the content
+	 * of each entry back to its sequence IDs.  It is only kept
+	 * when the -index option is given, and is null otherwise.
+	 * For more information, look in the ContentIndex.java file.
+	 */
+	private static ContentIndex index;
+	private static boolean indexed = false;
+	
+	/**
+	 * Optional latency recorder for replaying workloads.  When
+	 * set, every command run by runCommands is timed and recorded
+	 * under its command name.  It is left null for normal runs.
+	 */
+	static LatencyRecorder recorder;
+	
+	/**
+	 * Maximum probe distance for Robin Hood probing in the hash
+	 * table, or 0 for plain linear probing.  Set by the -robinhood
+	 * option, which uses DEFAULT_ROBIN_HOOD if no bound is given.
+	 */
+	private static int robinHood = 0;
+	private static final int DEFAULT_ROBIN_HOOD = 16;
+	
+	/**
+	 * Window size for batching, or 0 to run every command on
+	 * its own.  Set by the -batch option.  With batching, runs
+	 * of insert and search commands are collected into windows
+	 * and run together through the batch APIs of the hash table
+	 * and database manager.  Any other command ends the window.
+	 */
+	private static int batchSize = 0;
+	private static final int DEFAULT_BATCH = 64;
+	
+	/**
+	 * True to open existing hash and memory files read-only,
+	 * as written by an earlier run with the same size and
+	 * options.  Set by the -readonly option.  Inserts, removes
+	 * and compacts are refused on a read-only store.
+	 */
+	private static boolean readOnly = false;
+	
+	/**
+	 * Number of threads for running searches on a read-only
+	 * store, or VIRTUAL_THREADS for one virtual thread per
+	 * search.  Set by the -threads option.  When set, searches
+	 * are collected into windows as for -batch, run at once on
+	 * the executor, and printed in order.
+	 */
+	private static int threads = 0;
+	private static final int VIRTUAL_THREADS = -1;
+	private static ExecutorService executor;
+	
+	/**
+	 * Budget in bytes for the database manager's cache of
+	 * stored IDs and entries, or 0 for no cache.  Set by the
+	 * -cache option, which uses DEFAULT_CACHE if no budget is
+	 * given.
+	 */
+	private static long cacheBytes = 0;
+	private static final long DEFAULT_CACHE = 16 << 20;
+	
+	/**
+	 * Declared length from which an insert streams its entry
+	 * straight from the command file into the memory file.
+	 * Shorter entries are read as a String, which is cheaper
+	 * for them and shares duplicates without writing anything.
+	 */
+	private static final int STREAM_LENGTH = 1 << 16;
+	
+	/**
+	 * Insert and search commands waiting in the current window,
+	 * in the order they were read.
+	 */
+	private static List<Pending> batch = new ArrayList<Pending>();
+	
+	/**
+	 * A single insert or search command waiting in a batch
+	 * window, along with what it will print once the window runs.
+	 */
+	private static class Pending {
+		boolean insert;
+		String sequenceID;
+		int length;
+		String entry;
+		long start;
+		
+		/**
+		 * For an insert, the handles it stored and whether the
+		 * table took them.  For a search, the earlier insert of
+		 * the same ID in this window, if there was one.
+		 */
+		Handle[] handles;
+		boolean stored;
+		Pending earlier;
+	}
+	
+	/**
+	 * A reader over the rest of the current line of the
+	 * command file, so that an entry can be streamed into the
+	 * database manager without ever building it as a String.
+	 * It reads from the command file, which is already buffered,
+	 * a character at a time, stopping just past the end of the
+	 * line, so the next readLine starts on the following line.
+	 */
+	private static class LineReader extends Reader {
+		private BufferedReader in;
+		private boolean done;
+		
+		/**
+		 * Constructor for a reader over the current line.
+		 * 
+		 * @param reader - the command file, at the start of the line
+		 */
+		LineReader(BufferedReader reader) {
+			in = reader;
+			done = false;
+		}
+		
+		/**
+		 * Reads letters up to the end of the line, then consumes
+		 * the line break itself, whether it is \n, \r or \r\n.
+		 * 
+		 * @param cbuf - the buffer to read into
+		 * @param off - the offset to start storing at
+		 * @param len - the largest number of characters to read
+		 * @return - the number of characters read, or -1 at the end of the line
+		 * @throws IOException - if the command file cannot be read
+		 */
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			int count = 0;
+			while (!done && count < len) {
+				int c = in.read();
+				if (c == '\r') {
+					// Take the \n of a \r\n line break as well
+					in.mark(1);
+					if (in.read() != '\n') {
+						in.reset();
+					}
+				}
+				if (c < 0 || c == '\n' || c == '\r') {
+					done = true;
+				} else {
+					cbuf[off + count++] = (char) c;
+				}
+			}
+			return count == 0 && len > 0 ? -1 : count;
+		}
+		
+		/**
+		 * Skips whatever is left of the line.
+		 * 
+		 * @throws IOException - if the command file cannot be read
+		 */
+		public void close() throws IOException {
+			while (!done) {
+				int c = in.read();
+				if (c == '\r') {
+					in.mark(1);
+					if (in.read() != '\n') {
+						in.reset();
+					}
+				}
+				done = c < 0 || c == '\n' || c == '\r';
+			}
+		}
+	}
+	
 	/**
 	 * Main method to control data flow.  This function takes
 	 * the command line parameter as input and calls a method
@@ -81,10 +265,13 @@ public class P4 {
 	public static void main(String[] args) {
 				
 		// Check for proper usage
-		if (args.length != 4) {
-			System.out.println("Usage:");
-			System.out.println("P4 <command-file> <hash-file> <hash-table-size> <memory-file>");
-			System.exit(0);
+		if (args.length < 4) {
+			usage();
+		}
+		for (int i = 4; i < args.length; i++) {
+			if (!parseOption(args[i])) {
+				usage();
+			}
 		}
 		
 		// Check the hash table size
@@ -93,20 +280,157 @@ public class P4 {
 			System.exit(0);
 		}
 		
-		dbm = new DatabaseManager(args[3]);
-		table = new HashTable(args[1], Integer.parseInt(args[2]), dbm);
-		
+		open(args[1], Integer.parseInt(args[2]), args[3]);
 		runCommands(args[0]);
+		close();
+	}
+	
+	/**
+	 * Prints the usage message, with every option, then exits.
+	 */
+	static void usage() {
+		System.out.println("Usage:");
+		System.out.println("P4 <command-file> <hash-file> <hash-table-size> <memory-file> [options]");
+		System.out.println("Options:");
+		System.out.println("  -robinhood[=N]  Robin Hood probing, at most N slots from home (default "
+				+ DEFAULT_ROBIN_HOOD + ")");
+		System.out.println("  -batch[=N]      run inserts and searches in windows of N (default "
+				+ DEFAULT_BATCH + ")");
+		System.out.println("  -index          keep a content index in <hash-file>.content");
+		System.out.println("  -readonly       open existing files written by an earlier run, for searches only");
+		System.out.println("  -threads=N      with -readonly, run searches on N threads, or one");
+		System.out.println("                  virtual thread each with -threads=virtual");
+		System.out.println("  -cache[=N]      cache up to N bytes of IDs and entries (default "
+				+ DEFAULT_CACHE + ")");
+		System.exit(0);
+	}
+	
+	/**
+	 * Parses a single command line option, such as -robinhood=8,
+	 * and stores its value for use by open.
+	 * 
+	 * @param option - the option as given on the command line
+	 * @return - true if the option is valid, false otherwise
+	 */
+	static boolean parseOption(String option) {
+		try {
+			if (option.equals("-robinhood")) {
+				robinHood = DEFAULT_ROBIN_HOOD;
+				return true;
+			}
+			if (option.startsWith("-robinhood=")) {
+				robinHood = Integer.parseInt(option.substring(11));
+				return robinHood > 0 && robinHood <= 32;
+			}
+			if (option.equals("-index")) {
+				indexed = true;
+				return true;
+			}
+			if (option.equals("-batch")) {
+				batchSize = DEFAULT_BATCH;
+				return true;
+			}
+			if (option.startsWith("-batch=")) {
+				batchSize = Integer.parseInt(option.substring(7));
+				return batchSize > 0;
+			}
+			if (option.equals("-cache")) {
+				cacheBytes = DEFAULT_CACHE;
+				return true;
+			}
+			if (option.startsWith("-cache=")) {
+				cacheBytes = Long.parseLong(option.substring(7));
+				return cacheBytes > 0;
+			}
+			if (option.equals("-readonly")) {
+				readOnly = true;
+				return true;
+			}
+			if (option.equals("-threads=virtual")) {
+				threads = VIRTUAL_THREADS;
+				return true;
+			}
+			if (option.startsWith("-threads=")) {
+				threads = Integer.parseInt(option.substring(9));
+				return threads > 0;
+			}
+		} catch (NumberFormatException e) {
+			return false;
+		}
+		return false;
+	}
+	
+	/**
+	 * This method will create the database manager and the
+	 * hash table on the given files.  It is separate from main
+	 * so that other drivers, such as WorkloadReplay, can set up
+	 * the same state before calling runCommands.  In read-only
+	 * mode the files are opened as they are, and an executor is
+	 * started if searches are to run on several threads.
+	 * 
+	 * @param hashFile - the file name for the hash table
+	 * @param hashSize - the size of the hash table, multiple of 32
+	 * @param memoryFile - the file name for the memory manager
+	 */
+	static void open(String hashFile, int hashSize, String memoryFile) {
+		if (threads != 0 && !readOnly) {
+			System.out.println("Option -threads requires -readonly.");
+			System.exit(0);
+		}
+		dbm = new DatabaseManager(memoryFile, readOnly, cacheBytes);
+		table = new HashTable(hashFile, hashSize, dbm, robinHood, readOnly);
+		if (indexed) {
+			index = new ContentIndex(hashFile + ".content", hashSize, readOnly);
+		}
+		if (threads != 0) {
+			executor = threads == VIRTUAL_THREADS ? newVirtualExecutor()
+					: Executors.newFixedThreadPool(threads);
+			if (batchSize == 0) {
+				batchSize = DEFAULT_BATCH;
+			}
+		}
+	}
+	
+	/**
+	 * Creates an executor that starts a virtual thread for
+	 * every task.  Virtual threads are looked up by reflection,
+	 * so the project still builds on older JDKs; without them,
+	 * a pool with one thread per core is used instead.
+	 * 
+	 * @return - the executor for running searches
+	 */
+	private static ExecutorService newVirtualExecutor() {
+		try {
+			return (ExecutorService) Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		}
+	}
+	
+	/**
+	 * This method will shut down cleanly once all commands have
+	 * run, trimming the memory file back to the end of its data
+	 * and stopping any search threads.
+	 */
+	static void close() {
+		if (executor != null) {
+			executor.shutdown();
+		}
+		dbm.close();
 	}
 	
 	/**
 	 * This method will run through the given command file and
 	 * execute the commands we find there.  For each of the
-	 * four commands, a separate method is used for clarity.
+	 * commands, a separate method is used for clarity.
+	 * If a recorder is set, each command is timed as well.
+	 * In batch mode, inserts and searches are queued and run
+	 * a window at a time by runBatch.
 	 * 
 	 * @param fileName - the file name for the command file
 	 */
-	private static void runCommands(String fileName) {
+	static void runCommands(String fileName) {
 		try {
 			// Attempt to open the input file into a buffered reader
 			BufferedReader in = new BufferedReader(new FileReader(fileName));
@@ -114,6 +438,12 @@ public class P4 {
 			// Keep reading in commands until we reach the EOF
 			String line;
 			while ((line = in.readLine()) != null) {
+				if (!batch.isEmpty() && line.trim().length() > 0 && !line.matches(SEARCH_PATTERN)
+						&& (readOnly || !line.matches(INSERT_PATTERN))) {
+					runBatch();
+				}
+				long start = System.nanoTime();
+				String command;
 				if (line.matches(INSERT_PATTERN)) {
 					// Parse out the sequence id and length from the command line
 					int begin = Math.max(line.indexOf("r"), line.indexOf("R")) + 2;
@@ -123,25 +453,75 @@ public class P4 {
 					String sequenceID = line.substring(begin, end).trim();
 					int length = Integer.parseInt(line.substring(end).trim());
 					
-					insert(sequenceID, length, in.readLine().trim());
+					if (batchSize > 0 && !readOnly) {
+						String entry = in.readLine().trim();
+						queue(true, sequenceID, length, entry, start);
+						continue;
+					}
+					if (length < STREAM_LENGTH) {
+						insert(sequenceID, length, in.readLine().trim(), null);
+					} else {
+						// Stream the entry straight from the command file
+						LineReader entry = new LineReader(in);
+						insert(sequenceID, length, null, entry);
+						entry.close();
+					}
+					command = "insert";
 				} else if (line.matches(REMOVE_PATTERN)) {
 					// Parse out the sequence id from the command line
 					int index = Math.max(line.indexOf("v"), line.indexOf("V")) + 2;
 					String sequenceID = line.substring(index).trim();
 					
 					remove(sequenceID);
+					command = "remove";
 				} else if (line.matches(PRINT_PATTERN)) {
 					print();
+					command = "print";
 				} else if (line.matches(SEARCH_PATTERN)) {
 					// Parse out the sequence id from the command line
 					int index = Math.max(line.indexOf("h"), line.indexOf("H")) + 1;
 					String sequenceID = line.substring(index).trim();
 					
+					if (batchSize > 0) {
+						queue(false, sequenceID, 0, null, start);
+						continue;
+					}
 					search(sequenceID);
+					command = "search";
+				} else if (line.matches(COMPACT_PATTERN)) {
+					compact();
+					command = "compact";
+				} else if (line.matches(STATS_PATTERN)) {
+					stats();
+					command = "stats";
+				} else if (line.matches(MATCH_PATTERN)) {
+					// Parse out the entry from the command line
+					int index = Math.max(line.indexOf("h"), line.indexOf("H")) + 1;
+					String entry = line.substring(index).trim();
+					
+					match(entry);
+					command = "match";
+				} else if (line.matches(RANGE_PATTERN)) {
+					// Parse out the two lengths from the command line
+					String[] lengths = line.trim().substring(5).trim().split(" +");
+					
+					range(Integer.parseInt(lengths[0]), Integer.parseInt(lengths[1]));
+					command = "range";
+				} else if (line.matches(APPROX_PATTERN)) {
+					// Parse out the entry and mismatch limit from the command line
+					String[] parts = line.trim().substring(6).trim().split(" +");
+					
+					approx(parts[0], Integer.parseInt(parts[1]));
+					command = "approx";
 				} else {
 					continue;
 				}
+				
+				if (recorder != null) {
+					recorder.record(command, System.nanoTime() - start);
+				}
 			}
+			runBatch();
 			in.close();
 		}  catch (FileNotFoundException e) {
 			System.out.println("The input file could not be found.");
@@ -155,19 +535,237 @@ public class P4 {
 		}
 	}
 	
+	/**
+	 * Adds an insert or search command to the current window,
+	 * and runs the window once it is full.
+	 * 
+	 * @param insert - true for an insert, false for a search
+	 * @param sequenceID - the sequence ID in ACGT letters
+	 * @param length - the length of the new entry, for an insert
+	 * @param entry - the entry in ACGT letters, for an insert
+	 * @param start - the time the command was read, in nanoseconds
+	 * @throws IOException - if an entry cannot be written out
+	 */
+	private static void queue(boolean insert, String sequenceID, int length,
+			String entry, long start) throws IOException {
+		Pending command = new Pending();
+		command.insert = insert;
+		command.sequenceID = sequenceID;
+		command.length = length;
+		command.entry = entry;
+		command.start = start;
+		batch.add(command);
+		if (batch.size() >= batchSize) {
+			runBatch();
+		}
+	}
+	
+	/**
+	 * This method runs the current window of inserts and
+	 * searches through the batch APIs.  First every ID is looked
+	 * up at once with searchAll.  Then the commands are walked in
+	 * order to decide which inserts go ahead, and those are stored
+	 * in one contiguous region with dbm.insertAll and added with
+	 * table.insertAll.  Finally each command prints exactly what
+	 * it would have printed if run on its own, in the same order.
+	 * 
+	 * @throws IOException - if an entry cannot be written out
+	 */
+	private static void runBatch() throws IOException {
+		if (batch.isEmpty()) {
+			return;
+		}
+		if (executor != null) {
+			runQueries();
+			return;
+		}
+		
+		// Look up every ID in the window at once
+		String[] ids = new String[batch.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = batch.get(i).sequenceID;
+		}
+		Handle[][] found = table.searchAll(ids);
+		Map<String, Handle[]> before = new HashMap<String, Handle[]>();
+		for (int i = 0; i < ids.length; i++) {
+			before.put(ids[i], found[i]);
+		}
+		
+		// Decide which inserts go ahead, in command order
+		Map<String, Pending> inserted = new HashMap<String, Pending>();
+		List<Pending> inserts = new ArrayList<Pending>();
+		for (Pending command : batch) {
+			command.earlier = inserted.get(command.sequenceID);
+			if (command.insert && command.length > 0
+					&& before.get(command.sequenceID) == null && command.earlier == null) {
+				inserted.put(command.sequenceID, command);
+				inserts.add(command);
+			}
+		}
+		
+		// Store the new IDs and entries, then add them to the table
+		if (!inserts.isEmpty()) {
+			String[] sequences = new String[inserts.size() * 2];
+			int[] lengths = new int[sequences.length];
+			for (int i = 0; i < inserts.size(); i++) {
+				Pending command = inserts.get(i);
+				sequences[i * 2] = command.sequenceID;
+				lengths[i * 2] = command.sequenceID.length();
+				sequences[i * 2 + 1] = command.entry;
+				lengths[i * 2 + 1] = command.length;
+			}
+			Handle[] stored = dbm.insertAll(sequences, lengths);
+			String[] newIDs = new String[inserts.size()];
+			Handle[] idHandles = new Handle[inserts.size()];
+			Handle[] entryHandles = new Handle[inserts.size()];
+			for (int i = 0; i < inserts.size(); i++) {
+				newIDs[i] = inserts.get(i).sequenceID;
+				idHandles[i] = stored[i * 2];
+				entryHandles[i] = stored[i * 2 + 1];
+				inserts.get(i).handles = new Handle[]{idHandles[i], entryHandles[i]};
+			}
+			boolean[] results = table.insertAll(newIDs, idHandles, entryHandles);
+			for (int i = 0; i < inserts.size(); i++) {
+				inserts.get(i).stored = results[i];
+				if (!results[i]) {
+					dbm.remove(idHandles[i]);
+					dbm.remove(entryHandles[i]);
+				} else if (index != null) {
+					index.insert(dbm.getDigest(entryHandles[i]), idHandles[i], entryHandles[i]);
+				}
+			}
+		}
+		
+		// Print the results in command order
+		for (Pending command : batch) {
+			Handle[] handles = before.get(command.sequenceID);
+			if (command.earlier != null && command.earlier.stored) {
+				handles = command.earlier.handles;
+			}
+			if (command.insert) {
+				if (command.length <= 0) {
+					System.out.println("Length less than zero.");
+				} else if (handles != null) {
+					System.out.println("Sequence " + command.sequenceID + " already in table.");
+					System.out.println();
+				} else if (command.handles != null && command.stored) {
+					System.out.println("SequenceID " + command.sequenceID + " inserted in hash table.");
+					System.out.println();
+				} else {
+					System.out.println("SequenceID " + command.sequenceID + " cannot be stored in hash table.");
+					System.out.println();
+				}
+			} else if (handles == null) {
+				System.out.println("SequenceID " + command.sequenceID + " not found.");
+				System.out.println();
+			} else {
+				System.out.print("Sequence found: ");
+				dbm.getSequence(handles[1]).writeTo(System.out);
+				System.out.println();
+				System.out.println();
+			}
+			
+			if (recorder != null) {
+				recorder.record(command.insert ? "insert" : "search",
+						System.nanoTime() - command.start);
+			}
+		}
+		batch.clear();
+	}
+	
+	/**
+	 * This method runs the current window of searches on a
+	 * read-only store, each as its own task on the executor.
+	 * Nothing is written and every read is positional, so the
+	 * tasks share the table and database manager without any
+	 * locking.  Each task builds its output in memory, and the
+	 * outputs are printed in command order.
+	 * 
+	 * @throws IOException - if a search fails or is interrupted
+	 */
+	private static void runQueries() throws IOException {
+		List<Future<byte[]>> results = new ArrayList<Future<byte[]>>();
+		for (final Pending command : batch) {
+			results.add(executor.submit(new Callable<byte[]>() {
+				public byte[] call() throws IOException {
+					return lookup(command.sequenceID);
+				}
+			}));
+		}
+		
+		try {
+			for (int i = 0; i < batch.size(); i++) {
+				System.out.write(results.get(i).get());
+				if (recorder != null) {
+					recorder.record("search", System.nanoTime() - batch.get(i).start);
+				}
+			}
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+		System.out.flush();
+		batch.clear();
+	}
+	
+	/**
+	 * Runs a single search for runQueries, returning what the
+	 * search command would print instead of printing it.
+	 * 
+	 * @param sequenceID - the sequence ID in ACGT letters
+	 * @return - the output of the search command
+	 * @throws IOException - if the entry cannot be written out
+	 */
+	private static byte[] lookup(String sequenceID) throws IOException {
+		String newLine = System.lineSeparator();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Handle[] handles = table.search(sequenceID);
+		if (handles == null) {
+			out.write(("SequenceID " + sequenceID + " not found." + newLine + newLine).getBytes());
+		} else {
+			out.write("Sequence found: ".getBytes());
+			dbm.getSequence(handles[1]).writeTo(out);
+			out.write((newLine + newLine).getBytes());
+		}
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Prints the message for a command that would change a
+	 * read-only store, if the store is read-only.
+	 * 
+	 * @return - true if the store is read-only, false otherwise
+	 */
+	private static boolean refuseWrite() {
+		if (readOnly) {
+			System.out.println("Store is read-only.");
+			System.out.println();
+		}
+		return readOnly;
+	}
+	
 	/**
 	 * This method is used for the insert command.  It takes
 	 * a sequence ID, length, and entry, then attempts to
 	 * add these to the memory manager and hash table.
+	 * Long entries are given as a stream instead, and are
+	 * written to the memory manager a chunk at a time, so they
+	 * are never held in memory as a whole.
 	 * If the hash table cannot take the new entry for
 	 * whatever reason, we remove the ID and entry from
 	 * the database manager as well.
 	 * 
 	 * @param sequenceID - the sequence ID in ACGT letters
 	 * @param length - the length of the new entry
-	 * @param entry - the entry in ACGT letters
+	 * @param entry - the entry in ACGT letters, or null if streamed
+	 * @param stream - the entry as a stream, or null if given as entry
 	 */
-	private static void insert(String sequenceID, int length, String entry) {
+	private static void insert(String sequenceID, int length, String entry, Reader stream) {
+		if (refuseWrite()) {
+			return;
+		}
+		
 		// Check the length
 		if (length <= 0) {
 			System.out.println("Length less than zero.");
@@ -187,17 +785,25 @@ public class P4 {
 		// Add both to the dbm
 		handles = new Handle[2];
 		handles[0] = dbm.insert(sequenceID, sequenceID.length());
-		handles[1] = dbm.insert(entry, length);
+		handles[1] = entry != null ? dbm.insert(entry, length) : dbm.insert(stream, length);
 		
-		// Add both to the table
-		boolean result = table.insert(sequenceID, handles[0], handles[1]);
+		// Add both to the table, unless the dbm could not store them
+		boolean result = handles[0] != null && handles[1] != null
+				&& table.insert(sequenceID, handles[0], handles[1]);
 
 		// Check if the table could take them
 		if(!result) {
-			dbm.remove(handles[0]);
-			dbm.remove(handles[1]);
+			if (handles[0] != null) {
+				dbm.remove(handles[0]);
+			}
+			if (handles[1] != null) {
+				dbm.remove(handles[1]);
+			}
 			System.out.println("SequenceID " + sequenceID + " cannot be stored in hash table.");
 		} else {
+			if (index != null) {
+				index.insert(dbm.getDigest(handles[1]), handles[0], handles[1]);
+			}
 			System.out.println("SequenceID " + sequenceID + " inserted in hash table.");
 		}
 		System.out.println();
@@ -211,8 +817,13 @@ public class P4 {
 	 * from the hash table and the database manager.
 	 * 
 	 * @param sequenceID - the sequence ID in ACGT letters
+	 * @throws IOException - if the entry cannot be written out
 	 */
-	private static void remove(String sequenceID) {
+	private static void remove(String sequenceID) throws IOException {
+		if (refuseWrite()) {
+			return;
+		}
+		
 		// Get ID from table
 		Handle[] handles = table.search(sequenceID);
 		
@@ -224,14 +835,18 @@ public class P4 {
 		}
 		
 		// Get entry from table
-		String entry = dbm.getEntry(handles[1]);
+		Sequence entry = dbm.getSequence(handles[1]);
 		
-		// Remove sequenceID and entry from table and dbm
+		// Remove sequenceID and entry from table, index and dbm
 		table.remove(sequenceID);
+		if (index != null) {
+			index.remove(dbm.getDigest(handles[1]), handles[0]);
+		}
 		dbm.remove(handles[0]);
 		dbm.remove(handles[1]);
 		System.out.println("Sequence Removed " + sequenceID + ":");
-		System.out.println(entry);
+		entry.writeTo(System.out);
+		System.out.println();
 		System.out.println();
 	}
 	
@@ -260,8 +875,9 @@ public class P4 {
 	 * is printed.
 	 * 
 	 * @param sequenceID - the sequence ID in ACGT letters
+	 * @throws IOException - if the entry cannot be written out
 	 */
-	private static void search(String sequenceID) {
+	private static void search(String sequenceID) throws IOException {
 		// Get ID from table
 		Handle[] handles = table.search(sequenceID);
 		
@@ -273,9 +889,113 @@ public class P4 {
 		}
 		
 		// Get entry from table
-		String entry = dbm.getEntry(handles[1]);
+		Sequence entry = dbm.getSequence(handles[1]);
 
-		System.out.println("Sequence found: " + entry);
+		System.out.print("Sequence found: ");
+		entry.writeTo(System.out);
+		System.out.println();
+		System.out.println();
+	}
+	
+	/**
+	 * This method is used for the compact command.  It will
+	 * reclaim every grave stone left in the hash table by
+	 * earlier removes, then print how many were reclaimed.
+	 */
+	private static void compact() {
+		if (refuseWrite()) {
+			return;
+		}
+		int reclaimed = table.reclaim();
+		System.out.println("Reclaimed " + reclaimed + " grave stone(s).");
+		System.out.println();
+	}
+	
+	/**
+	 * This method is used for the stats command.  It prints
+	 * statistics on how full the hash table is, then a
+	 * histogram of the free memory blocks.
+	 */
+	private static void stats() {
+		System.out.println(table.statistics());
+		System.out.println(dbm.statistics());
+		System.out.println();
+	}
+	
+	/**
+	 * This method is used for the match command.  It takes
+	 * an entry, then uses the content index to print every
+	 * sequence ID stored with exactly that entry.  Candidates
+	 * from the index are compared against the entry itself,
+	 * so a hash collision never gives a wrong answer.
+	 * 
+	 * @param entry - the entry in ACGT letters
+	 */
+	private static void match(String entry) {
+		if (index == null) {
+			System.out.println("Content index is not enabled.");
+			System.out.println();
+			return;
+		}
+		
+		Sequence packed = Sequence.valueOf(entry);
+		System.out.println("SequenceIDs with entry " + entry + ":");
+		int count = 0;
+		for (Handle[] handles : index.find(packed.digest(), packed.length())) {
+			if (dbm.getSequence(handles[1]).contentEquals(packed)) {
+				System.out.println(dbm.getSequence(handles[0]));
+				count++;
+			}
+		}
+		if (count == 0) {
+			System.out.println("None");
+		}
+		System.out.println();
+	}
+	
+	/**
+	 * This method is used for the range command.  It takes
+	 * two entry lengths, then uses the content index to print
+	 * every sequence ID whose entry length is between them.
+	 * 
+	 * @param min - the smallest entry length, inclusive
+	 * @param max - the largest entry length, inclusive
+	 */
+	private static void range(int min, int max) {
+		if (index == null) {
+			System.out.println("Content index is not enabled.");
+			System.out.println();
+			return;
+		}
+		
+		System.out.println("SequenceIDs with entry length " + min + " to " + max + ":");
+		List<Handle[]> matches = index.findLengths(min, max);
+		for (Handle[] handles : matches) {
+			System.out.println(dbm.getSequence(handles[0]) + ": length " + handles[1].getLength());
+		}
+		if (matches.isEmpty()) {
+			System.out.println("None");
+		}
+		System.out.println();
+	}
+	
+	/**
+	 * This method is used for the approx command.  It takes
+	 * an entry and a number of mismatches k, then prints every
+	 * sequence ID whose entry has the same length and differs
+	 * from it in at most k letters.  The scan runs in parallel
+	 * over the whole table and compares packed bytes only.
+	 * 
+	 * @param entry - the entry in ACGT letters
+	 * @param k - the most mismatches allowed
+	 */
+	private static void approx(String entry, int k) {
+		System.out.println("SequenceIDs within " + k + " mismatch(es) of " + entry + ":");
+		MismatchScan.Result result = MismatchScan.scan(table, dbm, Sequence.valueOf(entry), k);
+		System.out.print(result.ids);
+		if (result.count == 0) {
+			System.out.println("None");
+		}
 		System.out.println();
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,327 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * This class is a read-only view of a DNA sequence stored in
+ * its packed form, with four letters to a byte.  It implements
+ * CharSequence, but letters are only decoded when they are asked
+ * for, so a whole sequence never has to be built as a String.
+ * Sequences can be compared against each other byte by byte, or
+ * against plain letters, and can be streamed straight to output.
+ */
+public class Sequence implements CharSequence {
+
+	/**
+	 * Letters for each 2-bit value, in binary order.
+	 */
+	private static final char[] LETTERS = {'A', 'C', 'G', 'T'};
+
+	/**
+	 * Number of letters decoded at a time when streaming a
+	 * sequence to output.
+	 */
+	private static final int CHUNK = 8192;
+
+	/**
+	 * The low bit of every 2-bit letter in a packed word.
+	 */
+	private static final long LOW_BITS = 0x5555555555555555L;
+
+	/**
+	 * The packed bytes backing this view.  Sub-sequences share
+	 * the same array with a different start and length.
+	 */
+	private byte[] bytes;
+
+	/**
+	 * The letter index in bytes of the first letter of this
+	 * view, and the number of letters in the view.
+	 */
+	private int start;
+	private int length;
+
+	/**
+	 * Basic constructor for the Sequence class.  The array is
+	 * not copied, so it must not be changed afterwards.
+	 *
+	 * @param packed - the packed bytes, four letters to a byte
+	 * @param len - the number of letters in the sequence
+	 */
+	public Sequence(byte[] packed, int len) {
+		this(packed, 0, len);
+	}
+
+	/**
+	 * Constructor for a view starting part way into the
+	 * packed bytes, used for sub-sequences.
+	 *
+	 * @param packed - the packed bytes, four letters to a byte
+	 * @param first - the letter index of the first letter
+	 * @param len - the number of letters in the sequence
+	 */
+	private Sequence(byte[] packed, int first, int len) {
+		bytes = packed;
+		start = first;
+		length = len;
+	}
+
+	/**
+	 * Packs the given letters into a new Sequence.  Used for
+	 * query strings, so that they can be compared against stored
+	 * sequences without decoding either one.
+	 *
+	 * @param letters - the sequence in ACGT letters
+	 * @return - the packed sequence
+	 */
+	public static Sequence valueOf(CharSequence letters) {
+		byte[] packed = new byte[(letters.length() + 3) / 4];
+		for (int i = 0; i < letters.length(); i++) {
+			int value = getValue(letters.charAt(i));
+			if (value < 0) {
+				throw new IllegalArgumentException(letters.charAt(i)
+						+ " is not a valid character for this sequence.");
+			}
+			packed[i >> 2] |= value << (6 - 2 * (i & 3));
+		}
+		return new Sequence(packed, letters.length());
+	}
+
+	/**
+	 * Returns the 2-bit value for the given letter, or -1
+	 * if the letter is not one of ACGT.
+	 *
+	 * @param c - the letter to convert
+	 * @return - the 2-bit value of the letter
+	 */
+	private static int getValue(char c) {
+		switch (Character.toUpperCase(c)) {
+		case 'A':
+			return 0b00;
+		case 'C':
+			return 0b01;
+		case 'G':
+			return 0b10;
+		case 'T':
+			return 0b11;
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * Method to retrieve the number of letters.
+	 *
+	 * @return - the length of the sequence
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * Decodes the letter at the given index.
+	 *
+	 * @param index - the index of the letter
+	 * @return - the letter at that index
+	 */
+	public char charAt(int index) {
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+		}
+		int i = start + index;
+		return LETTERS[(bytes[i >> 2] >> (6 - 2 * (i & 3))) & 0x03];
+	}
+
+	/**
+	 * Returns a view of part of this sequence.  The packed
+	 * bytes are shared, not copied.
+	 *
+	 * @param begin - the index of the first letter, inclusive
+	 * @param end - the index of the last letter, exclusive
+	 * @return - the sub-sequence
+	 */
+	public Sequence subSequence(int begin, int end) {
+		if (begin < 0 || end > length || begin > end) {
+			throw new IndexOutOfBoundsException("begin " + begin + ", end " + end
+					+ ", length " + length);
+		}
+		return new Sequence(bytes, start + begin, end - begin);
+	}
+
+	/**
+	 * Compares this sequence against plain letters, decoding
+	 * one letter at a time and stopping at the first difference.
+	 *
+	 * @param letters - the letters to compare against
+	 * @return - true if the letters are the same, false otherwise
+	 */
+	public boolean contentEquals(CharSequence letters) {
+		if (letters instanceof Sequence) {
+			return contentEquals((Sequence) letters);
+		}
+		if (letters.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (charAt(i) != Character.toUpperCase(letters.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Compares this sequence against another packed sequence.
+	 * When both views start on a byte boundary, whole bytes are
+	 * compared, with the unused bits of the last byte masked off.
+	 *
+	 * @param other - the other sequence for comparison
+	 * @return - true if the letters are the same, false otherwise
+	 */
+	public boolean contentEquals(Sequence other) {
+		if (other.length != length) {
+			return false;
+		}
+		if ((start & 3) != 0 || (other.start & 3) != 0) {
+			for (int i = 0; i < length; i++) {
+				if (charAt(i) != other.charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		int full = length >> 2;
+		int mine = start >> 2, theirs = other.start >> 2;
+		for (int i = 0; i < full; i++) {
+			if (bytes[mine + i] != other.bytes[theirs + i]) {
+				return false;
+			}
+		}
+		int rest = length & 3;
+		if (rest != 0) {
+			int mask = (0xFF << (8 - 2 * rest)) & 0xFF;
+			return (bytes[mine + full] & mask) == (other.bytes[theirs + full] & mask);
+		}
+		return true;
+	}
+
+	/**
+	 * Counts the letters that differ between this sequence
+	 * and another of the same length (the Hamming distance).
+	 * When both views start on a byte boundary, 32 letters are
+	 * compared at a time: the packed words are XORed, each 2-bit
+	 * letter that differs is folded down to a single bit, and the
+	 * bits are counted with Long.bitCount.  Counting stops early
+	 * once it passes the given limit.
+	 *
+	 * @param other - the other sequence, of the same length
+	 * @param limit - the count past which to stop counting
+	 * @return - the number of mismatches, or some number above
+	 *           limit if there are more than limit
+	 */
+	public int mismatches(Sequence other, int limit) {
+		int count = 0;
+		if ((start & 3) != 0 || (other.start & 3) != 0) {
+			for (int i = 0; i < length && count <= limit; i++) {
+				if (charAt(i) != other.charAt(i)) {
+					count++;
+				}
+			}
+			return count;
+		}
+
+		ByteBuffer mine = ByteBuffer.wrap(bytes), theirs = ByteBuffer.wrap(other.bytes);
+		int first = start >> 2, otherFirst = other.start >> 2;
+		int words = length >> 5;
+		for (int i = 0; i < words && count <= limit; i++) {
+			long x = mine.getLong(first + i * 8) ^ theirs.getLong(otherFirst + i * 8);
+			count += Long.bitCount((x | (x >>> 1)) & LOW_BITS);
+		}
+		int rest = length & 31;
+		if (rest != 0 && count <= limit) {
+			long x = 0;
+			for (int j = 0; j < (rest + 3) / 4; j++) {
+				int at = words * 8 + j;
+				x |= (long) ((bytes[first + at] ^ other.bytes[otherFirst + at]) & 0xFF) << (56 - 8 * j);
+			}
+			x &= -1L << (64 - 2 * rest);
+			count += Long.bitCount((x | (x >>> 1)) & LOW_BITS);
+		}
+		return count;
+	}
+
+	/**
+	 * Computes a 64-bit FNV-1a hash of the packed letters and
+	 * the length.  Unused bits in the last byte are masked off,
+	 * so equal sequences always give equal hashes.
+	 *
+	 * @return - the content hash of the sequence
+	 */
+	public long digest() {
+		if ((start & 3) != 0) {
+			return valueOf(this).digest();
+		}
+		long hash = 0xcbf29ce484222325L ^ length;
+		int first = start >> 2, full = length >> 2;
+		for (int i = 0; i < full; i++) {
+			hash ^= bytes[first + i] & 0xFF;
+			hash *= 0x100000001b3L;
+		}
+		int rest = length & 3;
+		if (rest != 0) {
+			hash ^= bytes[first + full] & (0xFF << (8 - 2 * rest)) & 0xFF;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Streams the letters of this sequence to the given channel,
+	 * decoding a chunk at a time instead of building a String.
+	 *
+	 * @param out - the channel to write to
+	 * @throws IOException - if the channel cannot be written
+	 */
+	public void writeTo(WritableByteChannel out) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(Math.min(CHUNK, Math.max(length, 1)));
+		for (int i = 0; i < length; i++) {
+			buffer.put((byte) charAt(i));
+			if (!buffer.hasRemaining() || i == length - 1) {
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					out.write(buffer);
+				}
+				buffer.clear();
+			}
+		}
+	}
+
+	/**
+	 * Streams the letters of this sequence to the given output
+	 * stream.  The stream is not flushed or closed.
+	 *
+	 * @param out - the stream to write to
+	 * @throws IOException - if the stream cannot be written
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		writeTo(Channels.newChannel(out));
+	}
+
+	/**
+	 * Method to produce a string representation of the
+	 * sequence.  This decodes every letter, so it should be
+	 * avoided for long sequences.
+	 *
+	 * @return - the sequence in ACGT letters
+	 */
+	public String toString() {
+		char[] letters = new char[length];
+		for (int i = 0; i < length; i++) {
+			letters[i] = charAt(i);
+		}
+		return new String(letters);
+	}
+}
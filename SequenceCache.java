@@ -0,0 +1,182 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class is an in-memory cache of stored sequences, keyed
+ * by the byte offset of their block in the memory file, with a
+ * budget in bytes.  It is a segmented LRU: new sequences go in
+ * a small probation segment, and only move to the larger
+ * protected segment when they are used again.  Sequences are
+ * evicted from the cold end of probation, so a single pass over
+ * many sequences, such as a print, cannot push out the hot ones.
+ *
+ * Each sequence is charged for its packed bytes plus a fixed
+ * overhead, and sequences too large for the probation segment
+ * are never cached.  Entries must be invalidated whenever their
+ * block is freed or written, which DatabaseManager does.  All
+ * methods are synchronized, so the cache may be shared by
+ * several reading threads.
+ */
+public class SequenceCache {
+
+	/**
+	 * Bytes charged for each cached sequence on top of its
+	 * packed bytes, for the objects and map entry around it.
+	 */
+	private static final int OVERHEAD = 64;
+
+	/**
+	 * The two segments, each kept from least to most recently
+	 * used, and the bytes charged to each.
+	 */
+	private LinkedHashMap<Integer, Sequence> probation;
+	private LinkedHashMap<Integer, Sequence> protect;
+	private long probationBytes;
+	private long protectBytes;
+
+	/**
+	 * Budgets for each segment.  Probation gets a fifth of the
+	 * total budget and protected gets the rest.
+	 */
+	private long probationBudget;
+	private long protectBudget;
+
+	/**
+	 * Counters for the statistics output.
+	 */
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * Basic constructor for the SequenceCache class.
+	 *
+	 * @param budget - the most bytes to keep cached
+	 */
+	public SequenceCache(long budget) {
+		probation = new LinkedHashMap<Integer, Sequence>();
+		protect = new LinkedHashMap<Integer, Sequence>();
+		probationBudget = budget / 5;
+		protectBudget = budget - probationBudget;
+	}
+
+	/**
+	 * Looks up the sequence for a handle.  A hit in probation
+	 * promotes the sequence to protected, and a hit in protected
+	 * makes it the most recently used.
+	 *
+	 * @param handle - the handle to look up
+	 * @return - the cached sequence, or null if not cached
+	 */
+	public synchronized Sequence get(Handle handle) {
+		Integer offset = handle.getOffset();
+		Sequence sequence = protect.remove(offset);
+		if (sequence != null) {
+			protect.put(offset, sequence);
+		} else {
+			sequence = probation.remove(offset);
+			if (sequence == null) {
+				misses++;
+				return null;
+			}
+			probationBytes -= charge(sequence);
+			protect.put(offset, sequence);
+			protectBytes += charge(sequence);
+
+			// Demote the coldest protected sequences back to probation
+			Iterator<Map.Entry<Integer, Sequence>> it = protect.entrySet().iterator();
+			while (protectBytes > protectBudget) {
+				Map.Entry<Integer, Sequence> coldest = it.next();
+				it.remove();
+				protectBytes -= charge(coldest.getValue());
+				probation.put(coldest.getKey(), coldest.getValue());
+				probationBytes += charge(coldest.getValue());
+			}
+			trim();
+		}
+
+		if (sequence.length() != handle.getLength()) {
+			// A block of another length; should have been invalidated
+			invalidate(handle.getOffset());
+			misses++;
+			return null;
+		}
+		hits++;
+		return sequence;
+	}
+
+	/**
+	 * Adds a sequence read from the memory file to probation,
+	 * unless it is too large for the probation segment.
+	 *
+	 * @param handle - the handle the sequence was read for
+	 * @param sequence - the sequence stored for the handle
+	 */
+	public synchronized void put(Handle handle, Sequence sequence) {
+		if (charge(sequence) > probationBudget) {
+			return;
+		}
+		invalidate(handle.getOffset());
+		probation.put(handle.getOffset(), sequence);
+		probationBytes += charge(sequence);
+		trim();
+	}
+
+	/**
+	 * Drops any sequence cached for the block at the given
+	 * offset, because the block was freed or rewritten.
+	 *
+	 * @param offset - the byte offset of the block
+	 */
+	public synchronized void invalidate(int offset) {
+		Sequence sequence = probation.remove(offset);
+		if (sequence != null) {
+			probationBytes -= charge(sequence);
+		}
+		sequence = protect.remove(offset);
+		if (sequence != null) {
+			protectBytes -= charge(sequence);
+		}
+	}
+
+	/**
+	 * Evicts the coldest probation sequences until probation
+	 * is within its budget.
+	 */
+	private void trim() {
+		Iterator<Map.Entry<Integer, Sequence>> it = probation.entrySet().iterator();
+		while (probationBytes > probationBudget) {
+			probationBytes -= charge(it.next().getValue());
+			it.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Returns the bytes charged against the budget for a
+	 * cached sequence.
+	 *
+	 * @param sequence - the cached sequence
+	 * @return - its packed bytes plus the fixed overhead
+	 */
+	private static long charge(Sequence sequence) {
+		return (sequence.length() + 3) / 4 + OVERHEAD;
+	}
+
+	/**
+	 * Method to produce the statistics output for the cache.
+	 *
+	 * @return - hits, misses, evictions and bytes in each segment
+	 */
+	public synchronized String toString() {
+		long lookups = hits + misses;
+		return "Cache Statistics:\nHits: " + hits + ", misses: " + misses
+				+ (lookups == 0 ? "" : String.format(", hit rate: %.2f", (double) hits / lookups))
+				+ ", evictions: " + evictions
+				+ "\nProtected: " + protect.size() + " sequence(s), " + protectBytes + " of "
+				+ protectBudget + " byte(s)"
+				+ "\nProbation: " + probation.size() + " sequence(s), " + probationBytes + " of "
+				+ probationBudget + " byte(s)";
+	}
+}
@@ -0,0 +1,169 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class is a parallel scan over the hash file.  The
+ * buckets are split in half again and again until each piece
+ * is small enough, and the pieces are run by fork-join workers.
+ * Each piece reads its buckets with one positional read, so
+ * workers never share a file pointer.  Results are merged left
+ * to right, so listed IDs come out in slot order.
+ *
+ * The same scan backs both the print command, which lists
+ * every sequence ID with its slot, and the stats command, which
+ * counts live slots, grave stones and probe lengths.
+ */
+public class TableScan extends RecursiveTask<TableScan.Result> {
+
+	/**
+	 * Version for serialization, which tasks inherit.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Shared pool of workers for every scan, one per core.
+	 */
+	static final ForkJoinPool POOL = new ForkJoinPool();
+
+	/**
+	 * Largest number of buckets scanned by a single task
+	 * before it is split in two.
+	 */
+	private static final int LEAF_BUCKETS = 64;
+
+	/**
+	 * The table being scanned, and the database manager
+	 * holding its sequence IDs.
+	 */
+	private HashTable table;
+	private DatabaseManager dbm;
+
+	/**
+	 * The range of buckets for this task, from first up to
+	 * but not including last.
+	 */
+	private int first;
+	private int last;
+
+	/**
+	 * True to list every sequence ID and its slot, as for
+	 * print, or false to only gather statistics.
+	 */
+	private boolean listIDs;
+
+	/**
+	 * The result filled in by this task.  The per-bucket
+	 * arrays are shared with every other task in the scan.
+	 */
+	private Result result;
+
+	/**
+	 * Results for one range of buckets.  The lists of IDs are
+	 * joined in order, and the counts are added together, when
+	 * two neighbouring ranges are merged.
+	 */
+	public static class Result {
+
+		/**
+		 * Lines of the form "ID: hash slot [i]", in slot order.
+		 */
+		StringBuilder ids = new StringBuilder();
+
+		/**
+		 * Live slots and grave stones in each bucket of the
+		 * whole table.  Each task only fills in its own buckets.
+		 */
+		int[] live;
+		int[] graves;
+
+		/**
+		 * Number of live slots at each probe length, from 0
+		 * (in the home slot) to 31.
+		 */
+		long[] probes = new long[32];
+	}
+
+	/**
+	 * Constructor for a task over a range of buckets.
+	 *
+	 * @param tbl - the table being scanned
+	 * @param manager - the database manager holding the IDs
+	 * @param from - the first bucket, inclusive
+	 * @param to - the last bucket, exclusive
+	 * @param list - true to list IDs, false for statistics only
+	 * @param result - the result to fill in for this range
+	 */
+	private TableScan(HashTable tbl, DatabaseManager manager, int from, int to,
+			boolean list, Result result) {
+		table = tbl;
+		dbm = manager;
+		first = from;
+		last = to;
+		listIDs = list;
+		this.result = result;
+	}
+
+	/**
+	 * Scans the whole table in parallel.
+	 *
+	 * @param table - the table to scan
+	 * @param dbm - the database manager holding the IDs
+	 * @param listIDs - true to list IDs, false for statistics only
+	 * @return - the merged results for every bucket
+	 */
+	public static Result scan(HashTable table, DatabaseManager dbm, boolean listIDs) {
+		int buckets = table.getSize() / 32;
+		Result result = new Result();
+		result.live = new int[buckets];
+		result.graves = new int[buckets];
+		return POOL.invoke(new TableScan(table, dbm, 0, buckets, listIDs, result));
+	}
+
+	/**
+	 * Scans this task's buckets, splitting the range in two
+	 * if it is too large and merging the halves in order.
+	 *
+	 * @return - the results for this range
+	 */
+	protected Result compute() {
+		if (last - first > LEAF_BUCKETS) {
+			int middle = (first + last) >>> 1;
+			Result right = new Result();
+			right.live = result.live;
+			right.graves = result.graves;
+			TableScan left = new TableScan(table, dbm, first, middle, listIDs, result);
+			left.fork();
+			new TableScan(table, dbm, middle, last, listIDs, right).compute();
+			left.join();
+
+			result.ids.append(right.ids);
+			for (int i = 0; i < result.probes.length; i++) {
+				result.probes[i] += right.probes[i];
+			}
+			return result;
+		}
+
+		int[] slots = table.readSlots(first * 32L, (last - first) * 32);
+		for (int i = 0; i < (last - first) * 32; i++) {
+			long slot = first * 32L + i;
+			int bucket = (int) (slot / 32);
+			Handle idHandle = table.getIDHandle(slots, i);
+			if (idHandle.equals(HashTable.ZERO_HANDLE)) {
+				continue;
+			}
+			if (idHandle.equals(HashTable.GRAVE_HANDLE)) {
+				result.graves[bucket]++;
+				continue;
+			}
+
+			result.live[bucket]++;
+			if (listIDs) {
+				result.ids.append(dbm.getSequence(idHandle)).append(": hash slot [")
+						.append(slot).append("]\n");
+			} else {
+				result.probes[table.getProbeLength(slots, i, slot)]++;
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,327 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Workload generator for Project 4.
+ *
+ * This class writes large command files in the same grammar
+ * that P4 reads, so that production-shaped load can be replayed
+ * locally with WorkloadReplay.  Every option is given on the
+ * command line as name=value, and any option left out uses the
+ * default listed in the usage message.
+ *
+ * The generator keeps a fixed key space of sequence IDs.  Keys
+ * are split into live keys (currently inserted) and dead keys,
+ * so that inserts take a dead key and removes can be made to hit
+ * live keys.  Searches, and removes that miss the live set, draw
+ * from the whole key space with either uniform or Zipfian skew.
+ * With Zipfian skew, inserts draw with the same skew, and only
+ * fall back to a uniform dead key when the drawn key is live.
+ * ID and sequence lengths are always uniform between their
+ * minimum and maximum.
+ */
+public class WorkloadGenerator {
+
+	/**
+	 * Letters used for sequence IDs and entries.
+	 */
+	private static final char[] LETTERS = {'A', 'C', 'G', 'T'};
+
+	/**
+	 * Default values for every option, in the order they are
+	 * listed in the usage message.
+	 */
+	private static final String[][] DEFAULTS = {
+		{"ops", "100000", "number of commands to write"},
+		{"keys", "10000", "number of distinct sequence IDs, at most the IDs of idmin-idmax letters"},
+		{"mix", "40:50:10:0", "insert:search:remove:print weights"},
+		{"idmin", "8", "minimum sequence ID length, lengths uniform up to idmax"},
+		{"idmax", "16", "maximum sequence ID length"},
+		{"seqmin", "100", "minimum sequence length, lengths uniform up to seqmax"},
+		{"seqmax", "1000", "maximum sequence length"},
+		{"skew", "uniform", "key skew, uniform or zipf"},
+		{"theta", "0.99", "Zipfian exponent when skew=zipf"},
+		{"churn", "1.0", "fraction of removes that hit a live ID"},
+		{"dups", "0.0", "fraction of inserts that copy an earlier sequence"},
+		{"seed", "3114", "random seed"}
+	};
+
+	/**
+	 * Random number generator for the whole run.  Seeded so that
+	 * the same options always give the same command file.
+	 */
+	private Random random;
+
+	/**
+	 * The key space.  Positions [0, live) of order hold the
+	 * indices of live keys, and the rest hold dead keys.  The
+	 * position array maps a key index back to its place in order,
+	 * so keys can move between the two halves in constant time.
+	 */
+	private String[] keys;
+	private int[] order;
+	private int[] position;
+	private int live;
+
+	/**
+	 * Cumulative distribution over key ranks for Zipfian skew,
+	 * or null for uniform skew.
+	 */
+	private double[] zipf;
+
+	/**
+	 * Recently written sequences, kept so that inserts can
+	 * repeat one of them when duplicates are asked for.
+	 */
+	private String[] recent = new String[64];
+	private int written;
+
+	/**
+	 * Main method to control data flow.  Parses the options,
+	 * then writes the command file.
+	 *
+	 * @param args - the command file followed by name=value options
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			usage();
+		}
+
+		Map<String, String> options = new HashMap<String, String>();
+		for (String[] option : DEFAULTS) {
+			options.put(option[0], option[1]);
+		}
+		for (int i = 1; i < args.length; i++) {
+			int split = args[i].indexOf('=');
+			if (split < 0 || !options.containsKey(args[i].substring(0, split))) {
+				usage();
+			}
+			options.put(args[i].substring(0, split), args[i].substring(split + 1));
+		}
+
+		try {
+			new WorkloadGenerator(options).write(args[0], options);
+		} catch (IllegalArgumentException e) {
+			usage();
+		} catch (IOException e) {
+			System.out.println("Error writing to file.");
+			System.exit(0);
+		}
+	}
+
+	/**
+	 * Prints the usage message, with every option and its
+	 * default, then exits.
+	 */
+	private static void usage() {
+		System.out.println("Usage:");
+		System.out.println("WorkloadGenerator <command-file> [name=value ...]");
+		for (String[] option : DEFAULTS) {
+			System.out.println(String.format("  %-7s %s (default %s)",
+					option[0], option[2], option[1]));
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Basic constructor for the WorkloadGenerator class.
+	 * Builds the key space and, for Zipfian skew, the
+	 * cumulative distribution over key ranks.
+	 *
+	 * @param options - the parsed name=value options
+	 */
+	private WorkloadGenerator(Map<String, String> options) {
+		random = new Random(Long.parseLong(options.get("seed")));
+		int keyCount = Integer.parseInt(options.get("keys"));
+		int idMin = Integer.parseInt(options.get("idmin"));
+		int idMax = Integer.parseInt(options.get("idmax"));
+		if (idMin < 1 || idMax < idMin || keyCount < 1 || keyCount > capacity(idMin, idMax)) {
+			throw new IllegalArgumentException();
+		}
+
+		// Build distinct sequence IDs, all starting out dead
+		keys = new String[keyCount];
+		order = new int[keyCount];
+		position = new int[keyCount];
+		Set<String> seen = new HashSet<String>();
+		for (int i = 0; i < keyCount; i++) {
+			String key;
+			do {
+				key = sequence(idMin + random.nextInt(idMax - idMin + 1));
+			} while (!seen.add(key));
+			keys[i] = key;
+			order[i] = i;
+			position[i] = i;
+		}
+		live = 0;
+
+		if (options.get("skew").equals("zipf")) {
+			double theta = Double.parseDouble(options.get("theta"));
+			zipf = new double[keyCount];
+			double sum = 0;
+			for (int i = 0; i < keyCount; i++) {
+				sum += 1.0 / Math.pow(i + 1, theta);
+				zipf[i] = sum;
+			}
+			for (int i = 0; i < keyCount; i++) {
+				zipf[i] /= sum;
+			}
+		} else if (!options.get("skew").equals("uniform")) {
+			throw new IllegalArgumentException();
+		}
+	}
+
+	/**
+	 * Counts the distinct sequence IDs with lengths in the
+	 * given range, so that we never ask for more keys than
+	 * exist.  The count stops growing at Integer.MAX_VALUE.
+	 *
+	 * @param idMin - the minimum sequence ID length
+	 * @param idMax - the maximum sequence ID length
+	 * @return - the number of distinct IDs, capped
+	 */
+	private static long capacity(int idMin, int idMax) {
+		long total = 0;
+		for (int length = idMin; length <= idMax && total < Integer.MAX_VALUE; length++) {
+			total += length >= 16 ? Integer.MAX_VALUE : 1L << (2 * length);
+		}
+		return Math.min(total, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Writes the command file.  Each command is chosen by the
+	 * weights in the mix option, then given a key according to
+	 * its type.
+	 *
+	 * @param fileName - the file name for the command file
+	 * @param options - the parsed name=value options
+	 * @throws IOException - if the file cannot be written
+	 */
+	private void write(String fileName, Map<String, String> options) throws IOException {
+		int ops = Integer.parseInt(options.get("ops"));
+		int seqMin = Integer.parseInt(options.get("seqmin"));
+		int seqMax = Integer.parseInt(options.get("seqmax"));
+		double churn = Double.parseDouble(options.get("churn"));
+		double dups = Double.parseDouble(options.get("dups"));
+
+		String[] weights = options.get("mix").split(":");
+		if (weights.length != 4) {
+			throw new IllegalArgumentException();
+		}
+		int[] mix = new int[4];
+		for (int i = 0; i < 4; i++) {
+			mix[i] = Integer.parseInt(weights[i]) + (i > 0 ? mix[i - 1] : 0);
+		}
+		if (mix[3] <= 0) {
+			throw new IllegalArgumentException();
+		}
+
+		BufferedWriter out = new BufferedWriter(new FileWriter(fileName));
+		for (int i = 0; i < ops; i++) {
+			int pick = random.nextInt(mix[3]);
+			if (pick < mix[0]) {
+				// Insert a dead key, or a duplicate if every key is live.
+				// With Zipfian skew the key is drawn skewed, so hot keys are
+				// the ones inserted again, falling back to any dead key if
+				// the drawn one is live.
+				int key;
+				if (zipf != null) {
+					key = skewed();
+					if (position[key] < live && live < keys.length) {
+						key = order[live + random.nextInt(keys.length - live)];
+					}
+				} else {
+					key = live < keys.length
+							? order[live + random.nextInt(keys.length - live)] : skewed();
+				}
+				String entry;
+				if (dups > 0 && written > 0 && random.nextDouble() < dups) {
+					entry = recent[random.nextInt(Math.min(written, recent.length))];
+				} else {
+					entry = sequence(seqMin + random.nextInt(seqMax - seqMin + 1));
+					recent[written++ % recent.length] = entry;
+				}
+				out.write("insert " + keys[key] + " " + entry.length() + "\n");
+				out.write(entry + "\n");
+				setLive(key, true);
+			} else if (pick < mix[1]) {
+				out.write("search " + keys[skewed()] + "\n");
+			} else if (pick < mix[2]) {
+				// Remove a live key, or any key if we miss the churn roll
+				int key = live > 0 && random.nextDouble() < churn
+						? order[random.nextInt(live)] : skewed();
+				out.write("remove " + keys[key] + "\n");
+				setLive(key, false);
+			} else {
+				out.write("print\n");
+			}
+		}
+		out.close();
+	}
+
+	/**
+	 * Picks a key index from the whole key space, using the
+	 * configured skew.
+	 *
+	 * @return - the index of the chosen key
+	 */
+	private int skewed() {
+		if (zipf == null) {
+			return random.nextInt(keys.length);
+		}
+
+		// Binary search the cumulative distribution
+		double roll = random.nextDouble();
+		int low = 0, high = zipf.length - 1;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (zipf[mid] < roll) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Moves a key into or out of the live half of the key
+	 * space, by swapping it with the key on the boundary.
+	 *
+	 * @param key - the index of the key to move
+	 * @param alive - true to make the key live, false for dead
+	 */
+	private void setLive(int key, boolean alive) {
+		boolean isLive = position[key] < live;
+		if (isLive == alive) {
+			return;
+		}
+		int boundary = alive ? live : live - 1;
+		int other = order[boundary];
+		order[position[key]] = other;
+		position[other] = position[key];
+		order[boundary] = key;
+		position[key] = boundary;
+		live += alive ? 1 : -1;
+	}
+
+	/**
+	 * Builds a random sequence of ACGT letters.
+	 *
+	 * @param length - the number of letters
+	 * @return - the random sequence
+	 */
+	private String sequence(int length) {
+		char[] letters = new char[length];
+		for (int i = 0; i < length; i++) {
+			letters[i] = LETTERS[random.nextInt(4)];
+		}
+		return new String(letters);
+	}
+}
@@ -0,0 +1,91 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Replay harness for Project 4.
+ *
+ * This class replays a command file, usually one written by
+ * WorkloadGenerator, through P4.runCommands.  The normal command
+ * output is sent to an output file, or thrown away if none is
+ * given, so that terminal speed does not skew the timings.  Once
+ * the run is over, it reports overall throughput, latency
+ * percentiles for each command type, and the final sizes of the
+ * hash file and the memory file.
+ */
+public class WorkloadReplay {
+
+	/**
+	 * Main method to control data flow.  Takes the same
+	 * parameters and options as P4, plus an optional output
+	 * file given before any options.
+	 *
+	 * @param args - the command line arguments
+	 */
+	public static void main(String[] args) {
+
+		// Check for proper usage
+		if (args.length < 4) {
+			System.out.println("Usage:");
+			System.out.println("WorkloadReplay <command-file> <hash-file> <hash-table-size> <memory-file> [output-file] [P4 options]");
+			System.exit(0);
+		}
+		String outputFile = null;
+		for (int i = 4; i < args.length; i++) {
+			if (i == 4 && !args[i].startsWith("-")) {
+				outputFile = args[i];
+			} else if (!P4.parseOption(args[i])) {
+				P4.usage();
+			}
+		}
+
+		// Check the hash table size
+		if (Integer.parseInt(args[2]) % 32 != 0) {
+			System.out.println("Parameter hash-table-size must be a multiple of 32.");
+			System.exit(0);
+		}
+
+		// Send command output to the output file, or nowhere
+		PrintStream console = System.out;
+		PrintStream output = null;
+		try {
+			if (outputFile != null) {
+				output = new PrintStream(new FileOutputStream(outputFile), false);
+			} else {
+				output = new PrintStream(new OutputStream() {
+					public void write(int b) {
+					}
+					public void write(byte[] b, int off, int len) {
+					}
+				}, false);
+			}
+		} catch (FileNotFoundException e) {
+			System.out.println("The output file could not be created.");
+			System.exit(0);
+		}
+
+		LatencyRecorder recorder = new LatencyRecorder();
+		P4.recorder = recorder;
+		P4.open(args[1], Integer.parseInt(args[2]), args[3]);
+
+		System.setOut(output);
+		long start = System.nanoTime();
+		P4.runCommands(args[0]);
+		P4.close();
+		long elapsed = System.nanoTime() - start;
+		output.flush();
+		System.setOut(console);
+		output.close();
+
+		// Report throughput, latencies and file sizes
+		long total = recorder.getTotal();
+		double seconds = elapsed / 1e9;
+		System.out.println(String.format("Commands: %d in %.3f s (%.1f ops/sec)",
+				total, seconds, total / seconds));
+		System.out.println(recorder);
+		System.out.println("Hash file size: " + new File(args[1]).length() + " byte(s)");
+		System.out.println("Memory file size: " + new File(args[3]).length() + " byte(s)");
+	}
+}